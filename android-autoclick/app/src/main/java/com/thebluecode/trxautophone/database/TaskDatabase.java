@@ -7,6 +7,7 @@ import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
 import androidx.room.TypeConverters;
+import androidx.room.migration.Migration;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 
 import com.thebluecode.trxautophone.models.Step;
@@ -63,8 +64,7 @@ public abstract class TaskDatabase extends RoomDatabase {
                 }
             })
             .addMigrations(
-                // Add migrations here when schema changes
-                // Example: new Migration_1_2(), new Migration_2_3(), etc.
+                MIGRATION_1_2
             )
             .setQueryExecutor(databaseExecutor)
             .build();
@@ -78,17 +78,16 @@ public abstract class TaskDatabase extends RoomDatabase {
     }
 
     /**
-     * Example migration from version 1 to 2
+     * Migration from version 1 to 2: task retry policy
      */
-    /*
     static final Migration MIGRATION_1_2 = new Migration(1, 2) {
         @Override
-        public void migrate(SupportSQLiteDatabase database) {
-            // Example migration SQL statements
-            database.execSQL("ALTER TABLE Task ADD COLUMN description TEXT");
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE tasks ADD COLUMN retry_mode TEXT");
+            database.execSQL("ALTER TABLE tasks ADD COLUMN max_retries INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE tasks ADD COLUMN retry_delay INTEGER NOT NULL DEFAULT 1000");
         }
     };
-    */
 
     /**
      * Close database
@@ -74,6 +74,7 @@ public class StepTypeDialog extends DialogFragment {
         basicActions.add(Step.StepType.TAP);
         basicActions.add(Step.StepType.LONG_PRESS);
         basicActions.add(Step.StepType.SWIPE);
+        basicActions.add(Step.StepType.BURST_TAP);
         categories.put("Basic Actions", basicActions);
 
         // Search & Input
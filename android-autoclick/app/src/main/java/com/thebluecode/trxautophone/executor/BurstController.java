@@ -0,0 +1,207 @@
+package com.thebluecode.trxautophone.executor;
+
+import android.accessibilityservice.AccessibilityService;
+import android.accessibilityservice.GestureDescription;
+import android.graphics.Path;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.thebluecode.trxautophone.utils.Constants;
+
+/**
+ * Drives a sustained high-frequency tap burst at a target clicks-per-second.
+ *
+ * Taps are dispatched in multi-stroke batches covering a short window. A new
+ * gesture cancels the one in flight, so the next batch is only dispatched from
+ * the previous batch's completion callback. After every batch the controller
+ * compares completed taps against the target timeline and sizes the next
+ * batch to close the gap; cancelled batches widen the minimum tap spacing.
+ *
+ * All methods run on the executor's execution thread.
+ */
+class BurstController {
+    private static final String TAG = "BurstController";
+
+    /**
+     * Notified once when the burst has run for its full duration or was cancelled
+     */
+    interface Listener {
+        void onBurstFinished(@NonNull Result result);
+    }
+
+    /**
+     * Outcome of a finished burst
+     */
+    static final class Result {
+        final double targetRate;
+        final double achievedRate;
+        final long completedTaps;
+        final int batches;
+        final int cancelledBatches;
+        final long elapsed;
+
+        Result(double targetRate, double achievedRate, long completedTaps,
+               int batches, int cancelledBatches, long elapsed) {
+            this.targetRate = targetRate;
+            this.achievedRate = achievedRate;
+            this.completedTaps = completedTaps;
+            this.batches = batches;
+            this.cancelledBatches = cancelledBatches;
+            this.elapsed = elapsed;
+        }
+
+        boolean isSuccessful() {
+            return completedTaps > 0 && cancelledBatches < batches;
+        }
+    }
+
+    private final AccessibilityService service;
+    private final Handler handler;
+    private final int maxStrokes;
+
+    private Listener listener;
+    private float x;
+    private float y;
+    private double targetRate;
+    private long duration;
+
+    private long startTime;
+    private long completedTaps;
+    private int batches;
+    private int cancelledBatches;
+    private int inFlightTaps;
+    // Batch awaiting its result; callbacks for any other batch are stale
+    private GestureDescription inFlight;
+    private double minInterval;
+    private boolean active;
+
+    private final AccessibilityService.GestureResultCallback batchCallback =
+            new AccessibilityService.GestureResultCallback() {
+                @Override
+                public void onCompleted(GestureDescription gestureDescription) {
+                    onBatchFinished(gestureDescription, true);
+                }
+
+                @Override
+                public void onCancelled(GestureDescription gestureDescription) {
+                    onBatchFinished(gestureDescription, false);
+                }
+            };
+
+    BurstController(@NonNull AccessibilityService service, @NonNull Handler handler) {
+        this.service = service;
+        this.handler = handler;
+        this.maxStrokes = GestureDescription.getMaxStrokeCount();
+    }
+
+    /**
+     * Start a burst at (x, y) for the given duration
+     */
+    void start(float x, float y, double targetRate, long duration, @NonNull Listener listener) {
+        this.x = x;
+        this.y = y;
+        this.targetRate = Math.max(1, Math.min(targetRate, Constants.Limits.MAX_BURST_RATE));
+        this.duration = duration;
+        this.listener = listener;
+        this.startTime = SystemClock.uptimeMillis();
+        this.completedTaps = 0;
+        this.batches = 0;
+        this.cancelledBatches = 0;
+        this.minInterval = Constants.Limits.MIN_BURST_TAP_INTERVAL;
+        this.active = true;
+        dispatchNextBatch();
+    }
+
+    /**
+     * Stop the burst without notifying the listener. A late result of its
+     * batch in flight is ignored, also by a burst started afterwards.
+     */
+    void cancel() {
+        active = false;
+        inFlight = null;
+    }
+
+    boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Plan and dispatch the next batch of taps
+     */
+    private void dispatchNextBatch() {
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - startTime;
+        long remaining = duration - elapsed;
+        if (remaining <= 0) {
+            finish();
+            return;
+        }
+
+        // Taps owed by the end of the next window, including any deficit so far
+        long window = Math.min(Constants.Limits.BURST_BATCH_WINDOW, remaining);
+        double due = targetRate * (elapsed + window) / 1000.0 - completedTaps;
+        int count = (int) Math.max(1, Math.min(Math.round(due), maxStrokes));
+
+        double interval = Math.max(minInterval, (double) window / count);
+        count = (int) Math.max(1, Math.min(count, Math.floor(remaining / interval)));
+        long tapDuration = Math.max(1, Math.min(Constants.Defaults.BURST_TAP_DURATION,
+                (long) (interval / 2)));
+
+        GestureDescription.Builder builder = new GestureDescription.Builder();
+        for (int i = 0; i < count; i++) {
+            Path path = new Path();
+            path.moveTo(x, y);
+            builder.addStroke(new GestureDescription.StrokeDescription(
+                    path, Math.round(i * interval), tapDuration));
+        }
+
+        GestureDescription batch = builder.build();
+        inFlightTaps = count;
+        inFlight = batch;
+        batches++;
+        if (!service.dispatchGesture(batch, batchCallback, handler)) {
+            Log.e(TAG, "Burst batch rejected");
+            onBatchFinished(batch, false);
+        }
+    }
+
+    /**
+     * Account for a finished batch and continue or back off
+     */
+    private void onBatchFinished(GestureDescription batch, boolean completed) {
+        if (!active || batch != inFlight) {
+            Log.w(TAG, "Ignoring stale burst batch result");
+            return;
+        }
+        inFlight = null;
+
+        if (completed) {
+            completedTaps += inFlightTaps;
+        } else {
+            // The system dropped the batch; space taps out further before retrying
+            cancelledBatches++;
+            minInterval = Math.min(minInterval * 1.5, 1000.0 / Constants.Limits.MIN_BURST_RATE);
+            if (cancelledBatches > Constants.Limits.MAX_BURST_CANCELLATIONS) {
+                Log.w(TAG, "Too many cancelled burst batches, stopping burst");
+                finish();
+                return;
+            }
+        }
+        inFlightTaps = 0;
+        dispatchNextBatch();
+    }
+
+    private void finish() {
+        active = false;
+        inFlight = null;
+        long elapsed = Math.max(1, SystemClock.uptimeMillis() - startTime);
+        double achieved = completedTaps * 1000.0 / elapsed;
+        Log.i(TAG, String.format("Burst finished: %.1f/%.1f cps, %d taps, %d/%d batches cancelled",
+                achieved, targetRate, completedTaps, cancelledBatches, batches));
+        listener.onBurstFinished(new Result(targetRate, achieved, completedTaps,
+                batches, cancelledBatches, elapsed));
+    }
+}
@@ -0,0 +1,426 @@
+package com.thebluecode.trxautophone.executor;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.thebluecode.trxautophone.database.StepListConverter;
+import com.thebluecode.trxautophone.models.Task;
+import com.thebluecode.trxautophone.utils.Constants;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of run progress, so a run can continue where it was
+ * after the service is killed or interrupted.
+ *
+ * The execution thread only copies the position it would resume from into
+ * memory. A background writer appends the newest position at most once per
+ * checkpoint interval, so a stretch of fast steps costs a single record.
+ * Records carry a CRC and recovery stops at the first damaged one, which
+ * makes a torn write at the tail harmless. Records are kept per task: the
+ * newest checkpoint of a task stands until a finished record for the same
+ * task, so a run that was preempted stays resumable while another one runs.
+ * Once the file outgrows its size limit it is atomically replaced by one
+ * holding the newest checkpoint of every unfinished task.
+ */
+public class CheckpointJournal {
+    private static final String TAG = "CheckpointJournal";
+
+    private static final byte RECORD_CHECKPOINT = 1;
+    private static final byte RECORD_FINISHED = 2;
+    private static final int MAX_RECORD_LENGTH = 4096;
+
+    /**
+     * Position of a run as last written to the journal
+     */
+    public static final class Checkpoint {
+        private final long taskId;
+        private final long taskVersion;
+        private final int opCount;
+        private final int stepIndex;
+        private final int repeatCount;
+        private final int successfulSteps;
+        private final int failedSteps;
+        private final int[] loopCounters;
+        private final long timestamp;
+
+        Checkpoint(long taskId, long taskVersion, int opCount, int stepIndex, int repeatCount,
+                   int successfulSteps, int failedSteps, int[] loopCounters, long timestamp) {
+            this.taskId = taskId;
+            this.taskVersion = taskVersion;
+            this.opCount = opCount;
+            this.stepIndex = stepIndex;
+            this.repeatCount = repeatCount;
+            this.successfulSteps = successfulSteps;
+            this.failedSteps = failedSteps;
+            this.loopCounters = loopCounters;
+            this.timestamp = timestamp;
+        }
+
+        public long getTaskId() { return taskId; }
+        public long getTaskVersion() { return taskVersion; }
+        public int getOpCount() { return opCount; }
+        public int getStepIndex() { return stepIndex; }
+        public int getRepeatCount() { return repeatCount; }
+        public int getSuccessfulSteps() { return successfulSteps; }
+        public int getFailedSteps() { return failedSteps; }
+        public long getTimestamp() { return timestamp; }
+
+        int[] getLoopCounters() {
+            return loopCounters;
+        }
+    }
+
+    private final File file;
+    private final HandlerThread writerThread;
+    private final Handler writerHandler;
+    private final Runnable flushRunnable = this::flush;
+    private final Object ioLock = new Object();
+
+    // Latest position, handed from the execution thread to the writer under this
+    private long taskId;
+    private long taskVersion;
+    private int opCount;
+    private int stepIndex;
+    private int repeatCount;
+    private int successfulSteps;
+    private int failedSteps;
+    private int[] loopCounters = new int[0];
+    private int counterCount;
+    private boolean dirty;
+    private boolean flushScheduled;
+
+    // Writer thread only
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private final CRC32 crc = new CRC32();
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+
+    public CheckpointJournal(@NonNull File file) {
+        this.file = file;
+        this.writerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        this.writerThread.start();
+        this.writerHandler = new Handler(writerThread.getLooper());
+    }
+
+    /**
+     * Version of what a run of the task depends on: its steps and its repeat
+     * and retry settings. Unlike the task's update timestamp, which Room's
+     * setters bump on every load, it stays the same across reloads, so a
+     * checkpoint keeps matching the task it was taken from.
+     */
+    public static long versionOf(@NonNull Task task) {
+        String content = StepListConverter.fromStepList(task.getSteps())
+                + '|' + task.getRepeatCount() + '|' + task.getRepeatDelay()
+                + '|' + task.getRetryMode() + '|' + task.getMaxRetries() + '|' + task.getRetryDelay();
+        long h = 1125899906842597L;
+        for (int i = 0; i < content.length(); i++) {
+            h = 31 * h + content.charAt(i);
+        }
+        return h;
+    }
+
+    /**
+     * Note the position a run would resume from. Only copies a few fields;
+     * the write happens later on the journal's own thread.
+     */
+    public void checkpoint(long taskId, long taskVersion, int opCount, int stepIndex,
+                           int repeatCount, int successfulSteps, int failedSteps,
+                           @NonNull int[] loopCounters) {
+        synchronized (this) {
+            if (dirty && this.taskId != taskId) {
+                // Another task took over before the last position was written
+                Checkpoint previous = new Checkpoint(this.taskId, this.taskVersion, this.opCount,
+                        this.stepIndex, this.repeatCount, this.successfulSteps, this.failedSteps,
+                        Arrays.copyOf(this.loopCounters, counterCount),
+                        System.currentTimeMillis());
+                writerHandler.post(() -> write(previous));
+            }
+            this.taskId = taskId;
+            this.taskVersion = taskVersion;
+            this.opCount = opCount;
+            this.stepIndex = stepIndex;
+            this.repeatCount = repeatCount;
+            this.successfulSteps = successfulSteps;
+            this.failedSteps = failedSteps;
+            if (this.loopCounters.length < loopCounters.length) {
+                this.loopCounters = new int[loopCounters.length];
+            }
+            System.arraycopy(loopCounters, 0, this.loopCounters, 0, loopCounters.length);
+            this.counterCount = loopCounters.length;
+            this.dirty = true;
+            if (!flushScheduled) {
+                flushScheduled = true;
+                writerHandler.postDelayed(flushRunnable, Constants.Limits.CHECKPOINT_INTERVAL);
+            }
+        }
+    }
+
+    /**
+     * Record that the task's run ended on purpose or was discarded, so there
+     * is nothing to resume for it. Other tasks' checkpoints are kept.
+     */
+    public void finish(long taskId) {
+        synchronized (this) {
+            if (this.taskId == taskId) {
+                dirty = false;
+            }
+        }
+        writerHandler.post(() -> {
+            synchronized (ioLock) {
+                try {
+                    beginRecord(RECORD_FINISHED);
+                    record.writeLong(taskId);
+                    append();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error writing journal: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Write the pending position now instead of at the end of the interval
+     */
+    public void flushNow() {
+        writerHandler.removeCallbacks(flushRunnable);
+        writerHandler.post(flushRunnable);
+    }
+
+    /**
+     * Flush pending work and stop the writer thread
+     */
+    public void close() {
+        writerHandler.removeCallbacks(flushRunnable);
+        writerHandler.post(() -> {
+            flush();
+            synchronized (ioLock) {
+                closeStream();
+            }
+        });
+        writerThread.quitSafely();
+    }
+
+    /**
+     * Read the newest checkpoint of every task whose run did not finish,
+     * oldest first. Returns an empty list when there is no journal. Does
+     * blocking I/O; call it off the main thread.
+     */
+    @NonNull
+    public List<Checkpoint> readUnfinished() {
+        synchronized (ioLock) {
+            return new ArrayList<>(readRecords().values());
+        }
+    }
+
+    /**
+     * Replay the intact records into the newest checkpoint per task (ioLock held)
+     */
+    private Map<Long, Checkpoint> readRecords() {
+        Map<Long, Checkpoint> unfinished = new LinkedHashMap<>();
+        if (!file.exists()) {
+            return unfinished;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] buffer = new byte[MAX_RECORD_LENGTH];
+            CRC32 check = new CRC32();
+            while (true) {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    break;
+                }
+                in.readFully(buffer, 0, length);
+                long expected = in.readLong();
+                check.reset();
+                check.update(buffer, 0, length);
+                if (check.getValue() != expected) {
+                    Log.w(TAG, "Damaged journal record, ignoring the rest");
+                    break;
+                }
+                applyRecord(buffer, length, unfinished);
+            }
+        } catch (EOFException e) {
+            // Normal end of the journal, or a torn final record
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading journal: " + e.getMessage());
+        }
+        return unfinished;
+    }
+
+    private static void applyRecord(byte[] buffer, int length,
+                                    Map<Long, Checkpoint> unfinished) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer, 0, length));
+        byte type = in.readByte();
+        long taskId = in.readLong();
+        // Re-insert so the map stays ordered by each task's newest record
+        unfinished.remove(taskId);
+        if (type != RECORD_CHECKPOINT) {
+            return;
+        }
+        long taskVersion = in.readLong();
+        int opCount = in.readInt();
+        int stepIndex = in.readInt();
+        int repeatCount = in.readInt();
+        int successful = in.readInt();
+        int failed = in.readInt();
+        int[] counters = new int[in.readInt()];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = in.readInt();
+        }
+        long timestamp = in.readLong();
+        unfinished.put(taskId, new Checkpoint(taskId, taskVersion, opCount, stepIndex,
+                repeatCount, successful, failed, counters, timestamp));
+    }
+
+    /**
+     * Append the newest position if it changed since the last write (writer thread)
+     */
+    private void flush() {
+        synchronized (ioLock) {
+            try {
+                synchronized (this) {
+                    flushScheduled = false;
+                    if (!dirty) {
+                        return;
+                    }
+                    dirty = false;
+                    buildCheckpoint(taskId, taskVersion, opCount, stepIndex, repeatCount,
+                            successfulSteps, failedSteps, loopCounters, counterCount,
+                            System.currentTimeMillis());
+                }
+                append();
+            } catch (IOException e) {
+                Log.e(TAG, "Error writing journal: " + e.getMessage());
+                closeStream();
+            }
+        }
+    }
+
+    /**
+     * Append a position captured earlier (writer thread)
+     */
+    private void write(@NonNull Checkpoint checkpoint) {
+        synchronized (ioLock) {
+            try {
+                buildCheckpoint(checkpoint);
+                append();
+            } catch (IOException e) {
+                Log.e(TAG, "Error writing journal: " + e.getMessage());
+                closeStream();
+            }
+        }
+    }
+
+    private void beginRecord(byte type) throws IOException {
+        recordBytes.reset();
+        record.writeByte(type);
+    }
+
+    private void buildCheckpoint(@NonNull Checkpoint checkpoint) throws IOException {
+        buildCheckpoint(checkpoint.taskId, checkpoint.taskVersion, checkpoint.opCount,
+                checkpoint.stepIndex, checkpoint.repeatCount, checkpoint.successfulSteps,
+                checkpoint.failedSteps, checkpoint.loopCounters, checkpoint.loopCounters.length,
+                checkpoint.timestamp);
+    }
+
+    private void buildCheckpoint(long taskId, long taskVersion, int opCount, int stepIndex,
+                                 int repeatCount, int successful, int failed,
+                                 int[] counters, int counterCount, long timestamp) throws IOException {
+        beginRecord(RECORD_CHECKPOINT);
+        record.writeLong(taskId);
+        record.writeLong(taskVersion);
+        record.writeInt(opCount);
+        record.writeInt(stepIndex);
+        record.writeInt(repeatCount);
+        record.writeInt(successful);
+        record.writeInt(failed);
+        record.writeInt(counterCount);
+        for (int i = 0; i < counterCount; i++) {
+            record.writeInt(counters[i]);
+        }
+        record.writeLong(timestamp);
+    }
+
+    /**
+     * Append the record being built, compacting the file first when it is full
+     */
+    private void append() throws IOException {
+        if (file.length() > Constants.Limits.MAX_JOURNAL_SIZE) {
+            compact();
+            return;
+        }
+        if (out == null) {
+            fileOut = new FileOutputStream(file, true);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        }
+        writeFramed(out);
+        out.flush();
+        fileOut.getFD().sync();
+    }
+
+    /**
+     * Replace the journal with one holding the newest checkpoint of every
+     * unfinished task, counting the record being built
+     */
+    private void compact() throws IOException {
+        closeStream();
+        Map<Long, Checkpoint> unfinished = readRecords();
+        applyRecord(recordBytes.toByteArray(), recordBytes.size(), unfinished);
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream tmpOut = new FileOutputStream(tmp)) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(tmpOut));
+            for (Checkpoint checkpoint : unfinished.values()) {
+                buildCheckpoint(checkpoint);
+                writeFramed(data);
+            }
+            data.flush();
+            tmpOut.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not replace journal");
+        }
+    }
+
+    private void writeFramed(DataOutputStream target) throws IOException {
+        byte[] bytes = recordBytes.toByteArray();
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+        target.writeInt(bytes.length);
+        target.write(bytes);
+        target.writeLong(crc.getValue());
+    }
+
+    private void closeStream() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing journal: " + e.getMessage());
+            }
+            out = null;
+            fileOut = null;
+        }
+    }
+}
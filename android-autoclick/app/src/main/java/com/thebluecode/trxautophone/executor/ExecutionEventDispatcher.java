@@ -0,0 +1,202 @@
+package com.thebluecode.trxautophone.executor;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+
+import androidx.annotation.NonNull;
+
+import com.thebluecode.trxautophone.AutoClickApplication;
+import com.thebluecode.trxautophone.models.Step;
+import com.thebluecode.trxautophone.models.Task;
+import com.thebluecode.trxautophone.utils.Constants;
+import com.thebluecode.trxautophone.utils.NotificationUtils;
+import com.thebluecode.trxautophone.utils.TaskNotificationController;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Drains the execution event ring on the main thread at most once per frame,
+ * or once per configured interval, and delivers it to the
+ * {@link TaskExecutor.ExecutionCallback}.
+ *
+ * Lifecycle events (started, paused, resumed, completed, error) are delivered
+ * one by one and in order. Step events between them are coalesced to the
+ * latest completed and latest started step. Every event, coalesced or not,
+ * is appended to its run's {@link ExecutionTrace}, which is saved to
+ * {@link Constants.Files#LAST_RUN_TRACE} once the run completes.
+ */
+final class ExecutionEventDispatcher implements Choreographer.FrameCallback, ExecutionEventRing.Consumer {
+    private static final String TAG = "ExecutionEventDispatcher";
+
+    private final AutoClickApplication application;
+    private final TaskExecutor.ExecutionCallback callback;
+    private final TaskNotificationController notifications;
+    private final ExecutionEventRing ring;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Choreographer choreographer;
+    private final long minInterval;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final Runnable drainRunnable = this::drain;
+    private long lastDrain;
+
+    // Coalesced step progress of the current drain (main thread only)
+    private Task startedTask;
+    private Step startedStep;
+    private int startedPosition;
+    private int startedTotal;
+    private Step completedStep;
+    private boolean completedSuccess;
+    private boolean startedAfterCompleted;
+
+    /**
+     * Must be created on the main thread
+     *
+     * @param minInterval ms between drains, or 0 to drain once per frame
+     */
+    ExecutionEventDispatcher(@NonNull AutoClickApplication application,
+                             @NonNull TaskExecutor.ExecutionCallback callback,
+                             @NonNull ExecutionEventRing ring, long minInterval) {
+        this.application = application;
+        this.callback = callback;
+        this.ring = ring;
+        this.minInterval = minInterval;
+        this.choreographer = Choreographer.getInstance();
+        this.notifications = new TaskNotificationController(application);
+    }
+
+    /**
+     * Schedule a drain after events were published (any thread)
+     */
+    void requestDrain() {
+        if (!drainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        if (minInterval > 0) {
+            mainHandler.postAtTime(drainRunnable,
+                    Math.max(SystemClock.uptimeMillis(), lastDrain + minInterval));
+        } else {
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        drain();
+    }
+
+    private void drain() {
+        // Cleared first: events published from here on schedule another drain
+        drainScheduled.set(false);
+        lastDrain = SystemClock.uptimeMillis();
+        ring.drain(this);
+        flushProgress();
+    }
+
+    @Override
+    public void onEvent(@NonNull ExecutionEventRing.Event event) {
+        if (event.stats != null) {
+            event.stats.getTrace().append(event.type, event.position, event.success, event.time);
+        }
+
+        switch (event.type) {
+            case STEP_STARTED:
+                startedTask = event.task;
+                startedStep = event.step;
+                startedPosition = event.position;
+                startedTotal = event.total;
+                startedAfterCompleted = true;
+                return;
+            case STEP_COMPLETED:
+                completedStep = event.step;
+                completedSuccess = event.success;
+                startedAfterCompleted = false;
+                return;
+            default:
+                break;
+        }
+
+        flushProgress();
+        Task task = event.task;
+        switch (event.type) {
+            case EXECUTION_STARTED:
+                callback.onExecutionStarted(task);
+                notifications.showStatus(task, "Starting execution...", 0);
+                break;
+            case EXECUTION_PAUSED:
+                callback.onExecutionPaused(task);
+                notifications.showStatus(task, "Execution paused", -1);
+                break;
+            case EXECUTION_RESUMED:
+                callback.onExecutionResumed(task);
+                notifications.showStatus(task, "Execution resumed", -1);
+                break;
+            case EXECUTION_COMPLETED:
+                callback.onExecutionCompleted(task, event.success);
+                String message = event.success ? "Execution completed successfully" : "Execution failed";
+                notifications.showStatus(task, message, 100);
+                if (event.stats != null) {
+                    saveTrace(event.stats.getTrace());
+                }
+                break;
+            case EXECUTION_ERROR:
+                callback.onExecutionError(event.message);
+                NotificationUtils.showErrorNotification(application, event.message);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Save a finished run's trace in the background
+     */
+    private void saveTrace(@NonNull ExecutionTrace trace) {
+        File file = new File(application.getFilesDir(), Constants.Files.LAST_RUN_TRACE);
+        application.executeAsync(() -> {
+            try {
+                trace.writeTo(file);
+            } catch (Exception e) {
+                Log.e(TAG, "Error saving execution trace: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Deliver the coalesced step progress, keeping completed/started order
+     */
+    private void flushProgress() {
+        if (startedAfterCompleted) {
+            deliverCompleted();
+            deliverStarted();
+        } else {
+            deliverStarted();
+            deliverCompleted();
+        }
+        startedAfterCompleted = false;
+    }
+
+    private void deliverStarted() {
+        if (startedStep == null) {
+            return;
+        }
+        int progress = startedTotal > 0 ? (startedPosition * 100) / startedTotal : 0;
+        callback.onStepStarted(startedStep, startedPosition + 1, startedTotal);
+        if (startedTask != null) {
+            notifications.updateProgress(startedTask, startedStep.getSummary(), progress);
+        }
+        startedTask = null;
+        startedStep = null;
+    }
+
+    private void deliverCompleted() {
+        if (completedStep == null) {
+            return;
+        }
+        callback.onStepCompleted(completedStep, completedSuccess);
+        completedStep = null;
+    }
+}
@@ -0,0 +1,141 @@
+package com.thebluecode.trxautophone.executor;
+
+import androidx.annotation.NonNull;
+
+import com.thebluecode.trxautophone.models.Step;
+import com.thebluecode.trxautophone.models.Task;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer, single-consumer ring of execution events.
+ *
+ * The execution thread fills preallocated slots and publishes them with an
+ * ordered store, without locking or allocating. If the consumer falls so far
+ * behind that the ring is full, the producer spills into an overflow queue
+ * until the next drain, so no event is ever dropped; only that rare path
+ * takes a lock.
+ */
+final class ExecutionEventRing {
+
+    /**
+     * A reusable event slot. Only valid inside {@link Consumer#onEvent}.
+     */
+    static final class Event {
+        ExecutionTrace.EventType type;
+        Task task;
+        Step step;
+        ExecutionStats stats;
+        int position;
+        int total;
+        boolean success;
+        String message;
+        long time;
+        private boolean spilled;
+
+        private void clear() {
+            task = null;
+            step = null;
+            stats = null;
+            message = null;
+        }
+    }
+
+    interface Consumer {
+        void onEvent(@NonNull Event event);
+    }
+
+    private final Event[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final ArrayDeque<Event> overflow = new ArrayDeque<>();
+    private volatile boolean overflowing;
+    // A spilled event is being filled and not yet in the overflow (guarded by overflow)
+    private boolean spillPending;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    ExecutionEventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new Event[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Event();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Get the event to fill next (producer). Must be followed by {@link #commit}.
+     */
+    @NonNull
+    Event claim() {
+        if (!overflowing) {
+            long t = tail.get();
+            if (t - head.get() < slots.length) {
+                return slots[(int) (t & mask)];
+            }
+        }
+        synchronized (overflow) {
+            overflowing = true;
+            spillPending = true;
+        }
+        Event event = new Event();
+        event.spilled = true;
+        return event;
+    }
+
+    /**
+     * Make a filled event visible to the consumer (producer)
+     */
+    void commit(@NonNull Event event) {
+        if (event.spilled) {
+            synchronized (overflow) {
+                overflow.add(event);
+                spillPending = false;
+                overflowing = true;
+            }
+        } else {
+            tail.lazySet(tail.get() + 1);
+        }
+    }
+
+    /**
+     * Hand every published event to the consumer in order (consumer)
+     *
+     * @return number of events drained
+     */
+    int drain(@NonNull Consumer consumer) {
+        int drained = drainRing(consumer);
+        if (overflowing) {
+            synchronized (overflow) {
+                // The producer claims and commits on the overflow path while
+                // it is set, so the ring is complete and older than the overflow
+                drained += drainRing(consumer);
+                Event event;
+                while ((event = overflow.poll()) != null) {
+                    consumer.onEvent(event);
+                    drained++;
+                }
+                // A spill claimed but not yet committed keeps the producer on
+                // the overflow path; its commit requests the next drain
+                overflowing = spillPending;
+            }
+        }
+        return drained;
+    }
+
+    private int drainRing(Consumer consumer) {
+        long h = head.get();
+        long t = tail.get();
+        for (long i = h; i < t; i++) {
+            Event event = slots[(int) (i & mask)];
+            consumer.onEvent(event);
+            event.clear();
+        }
+        head.lazySet(t);
+        return (int) (t - h);
+    }
+}
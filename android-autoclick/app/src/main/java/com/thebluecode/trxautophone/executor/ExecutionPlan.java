@@ -0,0 +1,739 @@
+package com.thebluecode.trxautophone.executor;
+
+import android.accessibilityservice.GestureDescription;
+import android.graphics.Path;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.thebluecode.trxautophone.models.Step;
+import com.thebluecode.trxautophone.service.NodeSelector;
+import com.thebluecode.trxautophone.service.NodeTextIndex;
+import com.thebluecode.trxautophone.service.ScreenFingerprint;
+import com.thebluecode.trxautophone.service.WindowTopology;
+import com.thebluecode.trxautophone.utils.Constants;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable, pre-parsed form of a task's step list.
+ *
+ * Each enabled step is compiled once into an {@link Op} holding its parsed
+ * coordinates, durations and, for gestures, a ready-to-dispatch
+ * {@link GestureDescription}. Repeats replay the same ops without touching
+ * the step JSON again.
+ *
+ * When coalescing is enabled, runs of consecutive gesture ops separated by
+ * short delays are additionally fused into one multi-stroke gesture carried
+ * by the first op of the run, so the whole run costs a single dispatch.
+ *
+ * LOOP and CONDITION steps compile to control instructions with jump targets
+ * into the same op array. A LOOP step {"count": N, "steps": K} repeats the K
+ * steps that follow it N times using a loop counter register; a CONDITION
+ * step {"text": ..., "negate": false, "then": K, "else": M} runs the next K
+ * steps when the text is on screen and the M steps after those otherwise.
+ * Loop bodies are never copied, so iterations cost one counter update.
+ *
+ * TEXT_SEARCH and CONDITION steps may add "match" (exact, ignore_case,
+ * prefix, words, contains or regex) and "description": true to also match
+ * content descriptions, or target a node with a {@link NodeSelector} in
+ * "selector" instead of "text". Queries and selectors are compiled here once.
+ * They search the active window unless "window" (any, active, application,
+ * ime or system) or "windowPackage" routes them through the
+ * {@link WindowTopology}. A CONDITION may instead test "screen": "changed"
+ * or "unchanged", comparing the {@link ScreenFingerprint} with the one seen
+ * when the same CONDITION last ran.
+ * A TAP with "hitTest" is checked against the clickable nodes on screen
+ * first (see {@link TapCheck}) and is never coalesced.
+ */
+public final class ExecutionPlan {
+    private static final String TAG = "ExecutionPlan";
+
+    /**
+     * Operation kinds understood by the executor
+     */
+    public enum OpCode {
+        TAP,
+        LONG_PRESS,
+        SWIPE,
+        TEXT_SEARCH,
+        SYSTEM_KEY,
+        DELAY,
+        INPUT_TEXT,
+        WAIT_FOR_ELEMENT,
+        BURST,
+        LOOP_BEGIN,
+        LOOP_END,
+        BRANCH,
+        JUMP,
+        UNSUPPORTED
+    }
+
+    /**
+     * What a TAP checks against the screen snapshot before it is dispatched
+     */
+    public enum TapCheck {
+        /** Dispatch the gesture blindly */
+        NONE,
+        /** Fail the step unless a clickable node is under the point */
+        VALIDATE,
+        /** Click the node under the point directly, or tap if there is none */
+        NODE_CLICK
+    }
+
+    /**
+     * A single compiled step. Fields not used by the op code are left at their defaults.
+     */
+    public static final class Op {
+        private final Step step;
+        private final OpCode code;
+        private final long delay;
+        private final float x;
+        private final float y;
+        private final float endX;
+        private final float endY;
+        private final long duration;
+        private final int action;
+        private final double rate;
+        private final String text;
+        private final NodeTextIndex.Query query;
+        private final NodeSelector selector;
+        private final WindowTopology.Target window;
+        private final boolean click;
+        private final TapCheck tapCheck;
+        private final boolean negate;
+        private final boolean screenCheck;
+        private final int target;
+        private final int counter;
+        private final int count;
+        private final boolean synthetic;
+        private final GestureDescription gesture;
+        private final GestureDescription batchGesture;
+        private final int batchSize;
+        private final long batchDuration;
+        private final long watchdog;
+        private final int watchdogRetries;
+        private final RetryPolicy retryPolicy;
+        private final String error;
+
+        private Op(Builder builder) {
+            this.step = builder.step;
+            this.code = builder.code;
+            this.delay = builder.step.getDelay();
+            this.x = builder.x;
+            this.y = builder.y;
+            this.endX = builder.endX;
+            this.endY = builder.endY;
+            this.duration = builder.duration;
+            this.action = builder.action;
+            this.rate = builder.rate;
+            this.text = builder.text;
+            this.query = builder.query;
+            this.selector = builder.selector;
+            this.window = builder.window;
+            this.click = builder.click;
+            this.tapCheck = builder.tapCheck;
+            this.negate = builder.negate;
+            this.screenCheck = builder.screenCheck;
+            this.target = builder.target;
+            this.counter = builder.counter;
+            this.count = builder.count;
+            this.synthetic = builder.synthetic;
+            this.gesture = builder.gesture;
+            this.batchGesture = builder.batchGesture;
+            this.batchSize = builder.batchSize;
+            this.batchDuration = builder.batchDuration;
+            this.watchdog = builder.watchdog;
+            this.watchdogRetries = builder.watchdogRetries;
+            this.retryPolicy = builder.retryPolicy;
+            this.error = builder.error;
+        }
+
+        @NonNull public Step getStep() { return step; }
+        @NonNull public OpCode getCode() { return code; }
+        public long getDelay() { return delay; }
+        public float getX() { return x; }
+        public float getY() { return y; }
+        public float getEndX() { return endX; }
+        public float getEndY() { return endY; }
+        public long getDuration() { return duration; }
+        public int getAction() { return action; }
+        public double getRate() { return rate; }
+        @Nullable public String getText() { return text; }
+        @Nullable public NodeTextIndex.Query getQuery() { return query; }
+        @Nullable public NodeSelector getSelector() { return selector; }
+        @Nullable public WindowTopology.Target getWindowTarget() { return window; }
+        public boolean shouldClick() { return click; }
+        @NonNull public TapCheck getTapCheck() { return tapCheck; }
+        public boolean isNegated() { return negate; }
+
+        /**
+         * Whether this CONDITION tests for a screen change rather than a node
+         */
+        public boolean checksScreenChange() { return screenCheck; }
+
+        public int getTarget() { return target; }
+        public int getCounter() { return counter; }
+        public int getCount() { return count; }
+        @Nullable public GestureDescription getGesture() { return gesture; }
+        @Nullable public String getError() { return error; }
+
+        public boolean isGesture() {
+            return gesture != null;
+        }
+
+        /**
+         * Whether the op looks at the screen's nodes, so it needs window
+         * events to know when its snapshot is out of date
+         */
+        public boolean readsScreen() {
+            switch (code) {
+                case TEXT_SEARCH:
+                case INPUT_TEXT:
+                case WAIT_FOR_ELEMENT:
+                case BRANCH:
+                    return true;
+                case TAP:
+                    return tapCheck != TapCheck.NONE;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * Synthetic ops (loop back-edges and branch skips) have no step of
+         * their own: they run without delay and are not reported
+         */
+        public boolean isSynthetic() {
+            return synthetic;
+        }
+
+        /**
+         * Number of consecutive ops, starting with this one, covered by the
+         * gesture returned from {@link #getDispatchGesture()}
+         */
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        /**
+         * Gesture to dispatch for this op: the fused multi-stroke gesture when
+         * this op leads a coalesced run, otherwise its own gesture
+         */
+        @Nullable
+        public GestureDescription getDispatchGesture() {
+            return batchGesture != null ? batchGesture : gesture;
+        }
+
+        /**
+         * Time the op itself is expected to take once fired, excluding its
+         * leading delay. Used to lay out the drift-free timeline.
+         */
+        public long getNominalDuration() {
+            if (batchGesture != null) return batchDuration;
+            return isGesture() || code == OpCode.DELAY || code == OpCode.BURST ? duration : 0;
+        }
+
+        /**
+         * Longest the op may stay in flight before the executor gives up on
+         * its completion callback, or 0 for ops that complete synchronously.
+         * A step can override it with a "watchdog" value in its action data.
+         */
+        public long getWatchdogBudget() {
+            if (watchdog > 0) return watchdog;
+            switch (code) {
+                case TAP:
+                case LONG_PRESS:
+                case SWIPE:
+                case BURST:
+                    return getNominalDuration() + Constants.Limits.GESTURE_COMPLETION_TIMEOUT;
+                case DELAY:
+                case WAIT_FOR_ELEMENT:
+                    return duration + Constants.Limits.WATCHDOG_GRACE;
+                default:
+                    return 0;
+            }
+        }
+
+        /**
+         * Times a stalled op is dispatched again before it is failed
+         */
+        public int getWatchdogRetries() {
+            return watchdogRetries;
+        }
+
+        /**
+         * The step's own retry policy, or null to use the task's
+         */
+        @Nullable
+        public RetryPolicy getRetryPolicy() {
+            return retryPolicy;
+        }
+    }
+
+    private static final class Builder {
+        private final Step step;
+        private OpCode code = OpCode.UNSUPPORTED;
+        private float x;
+        private float y;
+        private float endX;
+        private float endY;
+        private long duration;
+        private int action;
+        private double rate;
+        private String text;
+        private NodeTextIndex.Query query;
+        private NodeSelector selector;
+        private WindowTopology.Target window;
+        private boolean click;
+        private TapCheck tapCheck = TapCheck.NONE;
+        private boolean negate;
+        private boolean screenCheck;
+        private int target = -1;
+        private int counter = -1;
+        private int count;
+        private boolean synthetic;
+        private GestureDescription gesture;
+        private GestureDescription batchGesture;
+        private int batchSize = 1;
+        private long batchDuration;
+        private long watchdog;
+        private int watchdogRetries;
+        private RetryPolicy retryPolicy;
+        private boolean recoveryOverride;
+        private String error;
+
+        Builder(Step step) {
+            this.step = step;
+        }
+
+        Op build() {
+            return new Op(this);
+        }
+    }
+
+    private final Op[] ops;
+    private final int counterCount;
+
+    private ExecutionPlan(Op[] ops, int counterCount) {
+        this.ops = ops;
+        this.counterCount = counterCount;
+    }
+
+    /**
+     * Compile a step list into a plan without gesture coalescing
+     */
+    @NonNull
+    public static ExecutionPlan compile(@NonNull List<Step> steps) {
+        return compile(steps, false);
+    }
+
+    /**
+     * Compile a step list into a plan. Disabled steps are dropped; steps whose
+     * action data cannot be parsed compile to {@link OpCode#UNSUPPORTED} so they
+     * still fail at run time the same way they used to.
+     */
+    @NonNull
+    public static ExecutionPlan compile(@NonNull List<Step> steps, boolean coalesceGestures) {
+        List<Builder> builders = new ArrayList<>(steps.size());
+        int counters = compileRange(steps, 0, steps.size(), builders, 0);
+
+        if (coalesceGestures) {
+            coalesceGestures(builders);
+        }
+
+        Op[] ops = new Op[builders.size()];
+        for (int i = 0; i < ops.length; i++) {
+            ops[i] = builders.get(i).build();
+        }
+        return new ExecutionPlan(ops, counters);
+    }
+
+    /**
+     * Compile steps [from, to) into {@code out}, recursing into loop and
+     * condition bodies. Body sizes count steps in the original list, disabled
+     * ones included, and are clamped to the enclosing range. A disabled
+     * control step is ignored and its body runs inline once.
+     *
+     * @return the next free loop counter register
+     */
+    private static int compileRange(@NonNull List<Step> steps, int from, int to,
+                                    @NonNull List<Builder> out, int nextCounter) {
+        int i = from;
+        while (i < to) {
+            Step step = steps.get(i);
+            if (step == null || !step.isEnabled()) {
+                i++;
+                continue;
+            }
+
+            if (step.getType() == Step.StepType.LOOP) {
+                Builder begin = compileControl(step, OpCode.LOOP_BEGIN);
+                if (begin.code != OpCode.LOOP_BEGIN) {
+                    out.add(begin);
+                    i++;
+                    continue;
+                }
+                int bodyEnd = Math.min(to, i + 1 + begin.target);
+                begin.counter = nextCounter++;
+                out.add(begin);
+                int bodyStart = out.size();
+                nextCounter = compileRange(steps, i + 1, bodyEnd, out, nextCounter);
+
+                Builder end = new Builder(step);
+                end.code = OpCode.LOOP_END;
+                end.synthetic = true;
+                end.counter = begin.counter;
+                end.target = bodyStart;
+                out.add(end);
+                begin.target = out.size();
+                i = bodyEnd;
+            } else if (step.getType() == Step.StepType.CONDITION) {
+                Builder branch = compileControl(step, OpCode.BRANCH);
+                if (branch.code != OpCode.BRANCH) {
+                    out.add(branch);
+                    i++;
+                    continue;
+                }
+                int thenEnd = Math.min(to, i + 1 + branch.target);
+                int elseEnd = Math.min(to, thenEnd + branch.count);
+                out.add(branch);
+                nextCounter = compileRange(steps, i + 1, thenEnd, out, nextCounter);
+
+                if (elseEnd > thenEnd) {
+                    Builder skipElse = new Builder(step);
+                    skipElse.code = OpCode.JUMP;
+                    skipElse.synthetic = true;
+                    out.add(skipElse);
+                    branch.target = out.size();
+                    nextCounter = compileRange(steps, thenEnd, elseEnd, out, nextCounter);
+                    skipElse.target = out.size();
+                } else {
+                    branch.target = out.size();
+                }
+                i = elseEnd;
+            } else {
+                out.add(compileStep(step));
+                i++;
+            }
+        }
+        return nextCounter;
+    }
+
+    /**
+     * Parse a LOOP or CONDITION step. Until the body is laid out, {@code target}
+     * holds the body length in steps and {@code count} the else-branch length.
+     */
+    @NonNull
+    private static Builder compileControl(@NonNull Step step, @NonNull OpCode code) {
+        Builder builder = new Builder(step);
+        try {
+            JSONObject data = new JSONObject(step.getActionData());
+            if (code == OpCode.LOOP_BEGIN) {
+                builder.count = data.getInt("count");
+                builder.target = Math.max(0, data.getInt("steps"));
+            } else {
+                String screen = data.optString("screen", "");
+                if (screen.isEmpty()) {
+                    compileTarget(data, builder);
+                } else if (screen.equals("changed") || screen.equals("unchanged")) {
+                    builder.screenCheck = true;
+                } else {
+                    throw new IllegalArgumentException("Unknown screen condition: " + screen);
+                }
+                builder.negate = data.optBoolean("negate", false) != screen.equals("unchanged");
+                builder.target = Math.max(0, data.optInt("then", 1));
+                builder.count = Math.max(0, data.optInt("else", 0));
+            }
+            builder.code = code;
+        } catch (Exception e) {
+            Log.e(TAG, "Error compiling step " + step.getId() + ": " + e.getMessage());
+            builder.error = "Invalid action data: " + e.getMessage();
+        }
+        return builder;
+    }
+
+    /**
+     * Fuse runs of gesture ops into multi-stroke gestures. A run continues while
+     * the next op is a gesture whose leading delay is at most
+     * {@link Constants.Limits#MAX_COALESCE_GAP}, and is cut before it would
+     * exceed the platform's stroke count or gesture duration limits. Each
+     * stroke keeps its original timing as an offset inside the gesture.
+     * Steps with their own retry or watchdog settings are never fused, since
+     * a fused gesture recovers as a whole under its lead's settings.
+     */
+    private static void coalesceGestures(@NonNull List<Builder> builders) {
+        int maxStrokes = GestureDescription.getMaxStrokeCount();
+        long maxDuration = GestureDescription.getMaxGestureDuration();
+
+        // A jump may land on these, so they must start a run rather than sit inside one
+        boolean[] jumpTargets = new boolean[builders.size() + 1];
+        for (Builder builder : builders) {
+            if (builder.target >= 0 && builder.target < jumpTargets.length) {
+                jumpTargets[builder.target] = true;
+            }
+        }
+
+        int i = 0;
+        while (i < builders.size()) {
+            Builder lead = builders.get(i);
+            if (lead.gesture == null || lead.tapCheck != TapCheck.NONE || lead.recoveryOverride) {
+                i++;
+                continue;
+            }
+
+            int end = i + 1;
+            long runDuration = lead.duration;
+            while (end < builders.size() && end - i < maxStrokes) {
+                Builder next = builders.get(end);
+                long gap = next.step.getDelay();
+                if (next.gesture == null || next.tapCheck != TapCheck.NONE || next.recoveryOverride
+                        || jumpTargets[end] || gap > Constants.Limits.MAX_COALESCE_GAP
+                        || runDuration + gap + next.duration > maxDuration) {
+                    break;
+                }
+                runDuration += gap + next.duration;
+                end++;
+            }
+
+            if (end - i > 1) {
+                GestureDescription.Builder gesture = new GestureDescription.Builder();
+                long offset = 0;
+                for (int k = i; k < end; k++) {
+                    Builder member = builders.get(k);
+                    if (k > i) {
+                        offset += member.step.getDelay();
+                    }
+                    gesture.addStroke(new GestureDescription.StrokeDescription(
+                            buildPath(member.x, member.y, member.endX, member.endY, member.code),
+                            offset, Math.max(1, member.duration)));
+                    offset += member.duration;
+                }
+                lead.batchGesture = gesture.build();
+                lead.batchSize = end - i;
+                lead.batchDuration = runDuration;
+            }
+            i = end;
+        }
+    }
+
+    /**
+     * Compile a single step
+     */
+    @NonNull
+    private static Builder compileStep(@NonNull Step step) {
+        Builder builder = new Builder(step);
+        try {
+            switch (step.getType()) {
+                case TAP: {
+                    JSONObject data = new JSONObject(step.getActionData());
+                    builder.code = OpCode.TAP;
+                    builder.x = (float) data.getDouble("x");
+                    builder.y = (float) data.getDouble("y");
+                    builder.duration = Constants.Defaults.DEFAULT_TAP_DURATION;
+                    builder.tapCheck = parseTapCheck(data.optString("hitTest", ""));
+                    builder.gesture = buildGesture(builder);
+                    break;
+                }
+                case LONG_PRESS: {
+                    JSONObject data = new JSONObject(step.getActionData());
+                    builder.code = OpCode.LONG_PRESS;
+                    builder.x = (float) data.getDouble("x");
+                    builder.y = (float) data.getDouble("y");
+                    builder.duration = data.optLong("duration", Constants.Defaults.DEFAULT_LONG_PRESS_DURATION);
+                    builder.gesture = buildGesture(builder);
+                    break;
+                }
+                case SWIPE: {
+                    JSONObject data = new JSONObject(step.getActionData());
+                    builder.code = OpCode.SWIPE;
+                    builder.x = (float) data.getDouble("startX");
+                    builder.y = (float) data.getDouble("startY");
+                    builder.endX = (float) data.getDouble("endX");
+                    builder.endY = (float) data.getDouble("endY");
+                    builder.duration = data.optLong("duration", Constants.Defaults.DEFAULT_SWIPE_DURATION);
+                    builder.gesture = buildGesture(builder);
+                    break;
+                }
+                case WAIT_FOR_ELEMENT: {
+                    JSONObject data = new JSONObject(step.getActionData());
+                    builder.code = OpCode.WAIT_FOR_ELEMENT;
+                    builder.text = data.getString("text");
+                    builder.duration = data.optLong("timeout", Constants.Defaults.WAIT_TIMEOUT);
+                    break;
+                }
+                case BURST_TAP: {
+                    JSONObject data = new JSONObject(step.getActionData());
+                    builder.code = OpCode.BURST;
+                    builder.x = (float) data.getDouble("x");
+                    builder.y = (float) data.getDouble("y");
+                    builder.rate = data.optDouble("cps", Constants.Defaults.BURST_RATE);
+                    builder.duration = data.optLong("duration", Constants.Defaults.BURST_DURATION);
+                    break;
+                }
+                case TEXT_SEARCH: {
+                    JSONObject data = new JSONObject(step.getActionData());
+                    builder.code = OpCode.TEXT_SEARCH;
+                    compileTarget(data, builder);
+                    builder.click = data.optBoolean("click", true);
+                    break;
+                }
+                case SYSTEM_KEY: {
+                    JSONObject data = new JSONObject(step.getActionData());
+                    builder.code = OpCode.SYSTEM_KEY;
+                    builder.action = data.getInt("action");
+                    break;
+                }
+                case DELAY: {
+                    String actionData = step.getActionData();
+                    JSONObject data = actionData != null ? new JSONObject(actionData) : new JSONObject();
+                    builder.code = OpCode.DELAY;
+                    builder.duration = data.optLong("delay", Constants.Defaults.DEFAULT_DELAY);
+                    break;
+                }
+                case INPUT_TEXT: {
+                    JSONObject data = new JSONObject(step.getActionData());
+                    builder.code = OpCode.INPUT_TEXT;
+                    builder.text = data.getString("text");
+                    break;
+                }
+                default:
+                    builder.error = "Unsupported step type: " + step.getType();
+                    break;
+            }
+            if (builder.code != OpCode.UNSUPPORTED) {
+                compileRecovery(step, builder);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error compiling step " + step.getId() + ": " + e.getMessage());
+            builder.code = OpCode.UNSUPPORTED;
+            builder.gesture = null;
+            builder.error = "Invalid action data: " + e.getMessage();
+        }
+        return builder;
+    }
+
+    /**
+     * Parse a TAP's "hitTest" option: "validate" or "click"
+     */
+    @NonNull
+    private static TapCheck parseTapCheck(@NonNull String value) {
+        switch (value) {
+            case "":
+                return TapCheck.NONE;
+            case "validate":
+                return TapCheck.VALIDATE;
+            case "click":
+                return TapCheck.NODE_CLICK;
+            default:
+                throw new IllegalArgumentException("Unknown hitTest: " + value);
+        }
+    }
+
+    /**
+     * Read the node a TEXT_SEARCH or CONDITION step looks for: a "selector",
+     * or a "text" with its match options, and the windows to look in
+     */
+    private static void compileTarget(@NonNull JSONObject data, @NonNull Builder builder) throws JSONException {
+        String selector = data.optString("selector", "");
+        if (!selector.isEmpty()) {
+            builder.selector = NodeSelector.compile(selector);
+            builder.text = data.optString("text", selector);
+        } else {
+            builder.text = data.getString("text");
+            builder.query = NodeTextIndex.Query.fromJson(builder.text, data);
+        }
+        builder.window = WindowTopology.Target.fromJson(data);
+    }
+
+    /**
+     * Read the optional watchdog and retry overrides of a step. Only gestures
+     * are re-dispatched on a stall by default: a lost gesture callback is
+     * usually transient.
+     */
+    private static void compileRecovery(@NonNull Step step, @NonNull Builder builder) throws JSONException {
+        builder.watchdogRetries = builder.gesture != null ? Constants.Defaults.WATCHDOG_RETRIES : 0;
+        String actionData = step.getActionData();
+        if (actionData == null) {
+            return;
+        }
+        JSONObject data = new JSONObject(actionData);
+        builder.watchdog = Math.max(0, data.optLong("watchdog", 0));
+        builder.watchdogRetries = Math.max(0, data.optInt("watchdogRetries", builder.watchdogRetries));
+        builder.retryPolicy = RetryPolicy.fromJson(data.optJSONObject("retry"));
+        builder.recoveryOverride = data.has("retry") || data.has("watchdog") || data.has("watchdogRetries");
+    }
+
+    /**
+     * Build the single-stroke gesture of a compiled gesture op
+     */
+    @NonNull
+    private static GestureDescription buildGesture(@NonNull Builder op) {
+        Path path = buildPath(op.x, op.y, op.endX, op.endY, op.code);
+        GestureDescription.Builder builder = new GestureDescription.Builder();
+        builder.addStroke(new GestureDescription.StrokeDescription(path, 0, Math.max(1, op.duration)));
+        return builder.build();
+    }
+
+    /**
+     * Build the stroke path of a compiled gesture op
+     */
+    @NonNull
+    private static Path buildPath(float x, float y, float endX, float endY, OpCode code) {
+        Path path = new Path();
+        path.moveTo(x, y);
+        if (code == OpCode.SWIPE) {
+            path.lineTo(endX, endY);
+        }
+        return path;
+    }
+
+    /**
+     * Get the op at the given position
+     */
+    @NonNull
+    public Op get(int index) {
+        return ops[index];
+    }
+
+    /**
+     * Shortest leading delay of an op that reads the screen, or -1 if none
+     * does. Window events are only useful if they arrive faster than this.
+     */
+    public long getScreenReadDelay() {
+        long shortest = -1;
+        for (Op op : ops) {
+            if (op.readsScreen()) {
+                // A wait reacts to events directly; any latency delays it
+                long delay = op.code == OpCode.WAIT_FOR_ELEMENT ? 0 : op.delay;
+                if (shortest < 0 || delay < shortest) {
+                    shortest = delay;
+                }
+            }
+        }
+        return shortest;
+    }
+
+    /**
+     * Number of ops in the plan (enabled steps only)
+     */
+    public int size() {
+        return ops.length;
+    }
+
+    public boolean isEmpty() {
+        return ops.length == 0;
+    }
+
+    /**
+     * Number of loop counter registers the plan needs
+     */
+    public int getCounterCount() {
+        return counterCount;
+    }
+}
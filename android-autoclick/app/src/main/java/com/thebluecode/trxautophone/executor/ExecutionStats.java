@@ -0,0 +1,358 @@
+package com.thebluecode.trxautophone.executor;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Timing statistics collected during a single task run.
+ *
+ * Written from the execution thread, except for the main-thread lag probe
+ * which reports from the main looper, so all accessors are synchronized.
+ */
+public class ExecutionStats {
+
+    /**
+     * Running count / sum / max of a latency in milliseconds
+     */
+    public static final class Latency {
+        private long count;
+        private long total;
+        private long max;
+
+        void record(long millis) {
+            if (millis < 0) millis = 0;
+            count++;
+            total += millis;
+            if (millis > max) max = millis;
+        }
+
+        public long getCount() { return count; }
+        public long getMax() { return max; }
+
+        public double getAverage() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "avg=%.1fms max=%dms n=%d", getAverage(), max, count);
+        }
+    }
+
+    private static final int INITIAL_SAMPLE_CAPACITY = 256;
+
+    private final Latency executorLag = new Latency();
+    private final Latency mainThreadLag = new Latency();
+    private final Latency[] stepJitter;
+    private int[] jitterSamples = new int[INITIAL_SAMPLE_CAPACITY];
+    private int jitterSampleCount;
+    private boolean driftFree;
+    private long burstTaps;
+    private long burstElapsed;
+    private double burstTargetTaps;
+    private int burstBatches;
+    private int burstCancellations;
+    private long settleSaved;
+    private int settledSteps;
+    private int prefetchHits;
+    private int prefetchMisses;
+    private int tapHits;
+    private int tapMisses;
+    private int stalls;
+    private int stallRetries;
+    private int retries;
+    private int recoveredSteps;
+    private int exhaustedSteps;
+    private long startTime;
+    private long endTime;
+    private long plannedEndTime;
+
+    private final ExecutionTrace trace = new ExecutionTrace(SystemClock.uptimeMillis());
+
+    ExecutionStats(int opCount) {
+        stepJitter = new Latency[opCount];
+        for (int i = 0; i < opCount; i++) {
+            stepJitter[i] = new Latency();
+        }
+    }
+
+    synchronized void start(long uptimeMillis) {
+        startTime = uptimeMillis;
+    }
+
+    synchronized void finish(long uptimeMillis) {
+        endTime = uptimeMillis;
+    }
+
+    /**
+     * Record the planned end of the run's timeline (drift-free scheduling only)
+     */
+    synchronized void setPlannedEnd(long uptimeMillis, boolean driftFree) {
+        plannedEndTime = uptimeMillis;
+        this.driftFree = driftFree;
+    }
+
+    /**
+     * Record when a step was planned to fire and when the execution thread
+     * actually ran it. The difference feeds both the executor lag and the
+     * jitter percentiles.
+     */
+    synchronized void recordStepFire(int opIndex, long plannedAt, long actualAt) {
+        long late = Math.max(0, actualAt - plannedAt);
+        executorLag.record(late);
+        if (opIndex >= 0 && opIndex < stepJitter.length) {
+            stepJitter[opIndex].record(late);
+        }
+        if (jitterSampleCount == jitterSamples.length) {
+            jitterSamples = Arrays.copyOf(jitterSamples, jitterSamples.length * 2);
+        }
+        jitterSamples[jitterSampleCount++] = (int) Math.min(late, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Delay the main looper would have added to the same step
+     */
+    synchronized void recordMainThreadLag(long millis) {
+        mainThreadLag.record(millis);
+    }
+
+    /**
+     * Add the outcome of one burst step
+     */
+    synchronized void recordBurst(@NonNull BurstController.Result result) {
+        burstTaps += result.completedTaps;
+        burstElapsed += result.elapsed;
+        burstTargetTaps += result.targetRate * result.elapsed / 1000.0;
+        burstBatches += result.batches;
+        burstCancellations += result.cancelledBatches;
+    }
+
+    /**
+     * A step delay ended early because the screen settled
+     */
+    synchronized void recordSettle(long savedMillis) {
+        settledSteps++;
+        settleSaved += Math.max(0, savedMillis);
+    }
+
+    /**
+     * Delay time cut by "wait until idle"
+     */
+    public synchronized long getSettleSaved() {
+        return settleSaved;
+    }
+
+    public synchronized int getSettledSteps() {
+        return settledSteps;
+    }
+
+    /**
+     * A step's target was looked up during the wait before it; a hit means
+     * the node was still valid and no lookup was needed when it fired
+     */
+    synchronized void recordPrefetch(boolean hit) {
+        if (hit) {
+            prefetchHits++;
+        } else {
+            prefetchMisses++;
+        }
+    }
+
+    /**
+     * A checked TAP found a clickable node under its point, or did not
+     */
+    synchronized void recordHitTest(boolean hit) {
+        if (hit) {
+            tapHits++;
+        } else {
+            tapMisses++;
+        }
+    }
+
+    /**
+     * A step outlived its watchdog budget and was retried or failed
+     */
+    synchronized void recordStall(boolean retried) {
+        stalls++;
+        if (retried) {
+            stallRetries++;
+        }
+    }
+
+    public synchronized int getStalls() {
+        return stalls;
+    }
+
+    public synchronized int getStallRetries() {
+        return stallRetries;
+    }
+
+    /**
+     * A failed step was scheduled for another attempt
+     */
+    synchronized void recordRetry() {
+        retries++;
+    }
+
+    /**
+     * Final outcome of a step that needed at least one retry
+     */
+    synchronized void recordRetriedStep(boolean recovered) {
+        if (recovered) {
+            recoveredSteps++;
+        } else {
+            exhaustedSteps++;
+        }
+    }
+
+    public synchronized int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Steps that succeeded after one or more retries
+     */
+    public synchronized int getRecoveredSteps() {
+        return recoveredSteps;
+    }
+
+    /**
+     * Steps that still failed after using up their retries
+     */
+    public synchronized int getExhaustedSteps() {
+        return exhaustedSteps;
+    }
+
+    public synchronized int getPrefetchHits() {
+        return prefetchHits;
+    }
+
+    public synchronized int getPrefetchMisses() {
+        return prefetchMisses;
+    }
+
+    /**
+     * Checked TAPs that found a clickable node under their point
+     */
+    public synchronized int getTapHits() {
+        return tapHits;
+    }
+
+    /**
+     * Checked TAPs that found nothing clickable under their point
+     */
+    public synchronized int getTapMisses() {
+        return tapMisses;
+    }
+
+    /**
+     * Every execution event of the run, in order
+     */
+    @NonNull
+    public ExecutionTrace getTrace() {
+        return trace;
+    }
+
+    public synchronized long getDuration() {
+        return endTime > startTime ? endTime - startTime : 0;
+    }
+
+    public synchronized Latency getExecutorLag() {
+        return executorLag;
+    }
+
+    public synchronized Latency getMainThreadLag() {
+        return mainThreadLag;
+    }
+
+    /**
+     * Firing jitter of the op at the given plan position, across all repeats
+     */
+    @NonNull
+    public synchronized Latency getStepJitter(int opIndex) {
+        return stepJitter[opIndex];
+    }
+
+    /**
+     * Jitter percentile in milliseconds, {@code percentile} in [0, 100]
+     */
+    public synchronized long getJitterPercentile(double percentile) {
+        if (jitterSampleCount == 0) return 0;
+        int[] sorted = Arrays.copyOf(jitterSamples, jitterSampleCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(rank, sorted.length - 1))];
+    }
+
+    /**
+     * How far the run finished behind its planned timeline. Only meaningful
+     * with drift-free scheduling; relative scheduling has no fixed timeline.
+     */
+    public synchronized long getScheduleDrift() {
+        return driftFree && endTime > 0 ? endTime - plannedEndTime : 0;
+    }
+
+    /**
+     * Estimated main-looper queueing time that no longer sits in front of steps:
+     * the per-step lag difference between the two loopers times the steps run
+     */
+    public synchronized long getAvoidedMainThreadDelay() {
+        double perStep = mainThreadLag.getAverage() - executorLag.getAverage();
+        return perStep > 0 ? Math.round(perStep * executorLag.count) : 0;
+    }
+
+    /**
+     * Taps per second actually completed across all burst steps
+     */
+    public synchronized double getBurstAchievedRate() {
+        return burstElapsed == 0 ? 0 : burstTaps * 1000.0 / burstElapsed;
+    }
+
+    /**
+     * Time-weighted target rate across all burst steps
+     */
+    public synchronized double getBurstTargetRate() {
+        return burstElapsed == 0 ? 0 : burstTargetTaps * 1000.0 / burstElapsed;
+    }
+
+    public synchronized long getBurstTaps() {
+        return burstTaps;
+    }
+
+    public synchronized int getBurstCancellations() {
+        return burstCancellations;
+    }
+
+    public synchronized int getBurstBatches() {
+        return burstBatches;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return "ExecutionStats{" +
+                "duration=" + getDuration() + "ms" +
+                ", executorLag=[" + executorLag + "]" +
+                ", mainThreadLag=[" + mainThreadLag + "]" +
+                ", jitter p50/p90/p99=" + getJitterPercentile(50) + "/" +
+                        getJitterPercentile(90) + "/" + getJitterPercentile(99) + "ms" +
+                (driftFree ? ", drift=" + getScheduleDrift() + "ms" : "") +
+                (settledSteps > 0 ? ", settleSaved=" + settleSaved + "ms/" + settledSteps + " steps" : "") +
+                (retries > 0 ? ", retries=" + retries + " recovered/exhausted=" + recoveredSteps + "/" + exhaustedSteps : "") +
+                (stalls > 0 ? ", stalls=" + stalls + " (retried " + stallRetries + ")" : "") +
+                (prefetchHits + prefetchMisses > 0
+                        ? ", prefetch hit/miss=" + prefetchHits + "/" + prefetchMisses : "") +
+                (tapHits + tapMisses > 0 ? ", tap hit/miss=" + tapHits + "/" + tapMisses : "") +
+                (burstBatches > 0 ? String.format(Locale.US,
+                        ", burst=%.1f/%.1fcps taps=%d cancelled=%d/%d",
+                        getBurstAchievedRate(), getBurstTargetRate(), burstTaps,
+                        burstCancellations, burstBatches) : "") +
+                ", avoidedMainThreadDelay=" + getAvoidedMainThreadDelay() + "ms" +
+                '}';
+    }
+}
@@ -0,0 +1,151 @@
+package com.thebluecode.trxautophone.executor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Complete, ordered record of the execution events of one run.
+ *
+ * Unlike {@link TaskExecutor.ExecutionCallback}, which sees step progress
+ * coalesced to at most one update per frame, the trace keeps every event.
+ * Events are packed into two ints each so long runs stay cheap to keep.
+ * A finished run's trace is saved to a file and can be read back later.
+ */
+public class ExecutionTrace {
+
+    /**
+     * Kind of a traced event
+     */
+    public enum EventType {
+        EXECUTION_STARTED,
+        STEP_STARTED,
+        STEP_COMPLETED,
+        EXECUTION_PAUSED,
+        EXECUTION_RESUMED,
+        EXECUTION_COMPLETED,
+        EXECUTION_ERROR
+    }
+
+    private static final EventType[] TYPES = EventType.values();
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int POSITION_MASK = 0x00FFFFFF;
+    private static final int SUCCESS_BIT = 1 << 24;
+    private static final int TYPE_SHIFT = 25;
+    private static final int FILE_VERSION = 1;
+
+    private final long origin;
+    private int[] codes = new int[INITIAL_CAPACITY];
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    private int size;
+
+    ExecutionTrace(long originUptime) {
+        this.origin = originUptime;
+    }
+
+    synchronized void append(@NonNull EventType type, int position, boolean success, long uptimeMillis) {
+        if (size == codes.length) {
+            codes = Arrays.copyOf(codes, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        codes[size] = (type.ordinal() << TYPE_SHIFT)
+                | (success ? SUCCESS_BIT : 0)
+                | (Math.max(0, position) & POSITION_MASK);
+        offsets[size] = (int) Math.max(0, uptimeMillis - origin);
+        size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    @NonNull
+    public synchronized EventType getType(int index) {
+        return TYPES[codes[index] >>> TYPE_SHIFT];
+    }
+
+    /**
+     * Op index of a step event
+     */
+    public synchronized int getPosition(int index) {
+        return codes[index] & POSITION_MASK;
+    }
+
+    public synchronized boolean isSuccess(int index) {
+        return (codes[index] & SUCCESS_BIT) != 0;
+    }
+
+    /**
+     * Uptime the event was produced at
+     */
+    public synchronized long getTime(int index) {
+        return origin + offsets[index];
+    }
+
+    /**
+     * Save the trace, replacing the file atomically. Does blocking I/O.
+     */
+    synchronized void writeTo(@NonNull File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(FILE_VERSION);
+            out.writeLong(origin);
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeInt(codes[i]);
+                out.writeInt(offsets[i]);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not replace trace file");
+        }
+    }
+
+    /**
+     * Read a trace saved by a finished run, or null if there is none or it
+     * is unreadable. Does blocking I/O; call it off the main thread.
+     */
+    @Nullable
+    public static ExecutionTrace readFrom(@NonNull File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_VERSION) {
+                return null;
+            }
+            ExecutionTrace trace = new ExecutionTrace(in.readLong());
+            int count = in.readInt();
+            if (count < 0 || count > file.length() / 8) {
+                return null;
+            }
+            trace.codes = new int[Math.max(count, 1)];
+            trace.offsets = new int[Math.max(count, 1)];
+            for (int i = 0; i < count; i++) {
+                int code = in.readInt();
+                if ((code >>> TYPE_SHIFT) >= TYPES.length) {
+                    return null;
+                }
+                trace.codes[i] = code;
+                trace.offsets[i] = in.readInt();
+            }
+            trace.size = count;
+            return trace;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.thebluecode.trxautophone.executor;
+
+import android.graphics.Rect;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.thebluecode.trxautophone.service.NodeSnapshot;
+import com.thebluecode.trxautophone.service.ScreenFingerprint;
+import com.thebluecode.trxautophone.service.SnapshotCache;
+import com.thebluecode.trxautophone.utils.Constants;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Remembers where each TEXT_SEARCH step last found its target on a given
+ * screen, keyed by task, step and {@link ScreenFingerprint}, across runs.
+ *
+ * On a repeat visit the remembered node is fetched directly, by view id or
+ * else by child path, and only used if its bounds are unchanged and it still
+ * matches the step's query or selector. Otherwise the step falls back to a
+ * full snapshot search, whose result replaces the entry. Steps that search
+ * other windows than the active one, or use a selector with an exact view id,
+ * are not memoized.
+ *
+ * Thread-safe: lookups may run on several query threads at once. Only map
+ * access is locked; verification and searches run unlocked.
+ */
+public class LocationMemo {
+
+    /**
+     * Memo outcomes of one step
+     */
+    public static final class StepStats {
+        private long hits;
+        private long misses;
+
+        public synchronized long getHits() { return hits; }
+        public synchronized long getMisses() { return misses; }
+
+        public synchronized double getHitRatio() {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+
+        private synchronized void record(boolean hit) {
+            if (hit) hits++; else misses++;
+        }
+    }
+
+    private static final class Key {
+        private final long taskId;
+        private final long stepId;
+        private final long fingerprint;
+
+        Key(long taskId, long stepId, long fingerprint) {
+            this.taskId = taskId;
+            this.stepId = stepId;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return taskId == key.taskId && stepId == key.stepId && fingerprint == key.fingerprint;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = Long.hashCode(taskId);
+            h = h * 31 + Long.hashCode(stepId);
+            return h * 31 + Long.hashCode(fingerprint);
+        }
+    }
+
+    private static final class Location {
+        private final String viewId;
+        private final Rect bounds = new Rect();
+        private final int[] path;
+
+        Location(NodeSnapshot snapshot, int index) {
+            this.viewId = snapshot.getViewId(index);
+            snapshot.getBounds(index, bounds);
+            this.path = snapshot.getPath(index);
+        }
+    }
+
+    /**
+     * Records the snapshot position a full search settled on
+     */
+    private static final class Located implements SnapshotCache.Lookup {
+        private final SnapshotCache.Lookup lookup;
+        private NodeSnapshot snapshot;
+        private int index = -1;
+
+        Located(SnapshotCache.Lookup lookup) {
+            this.lookup = lookup;
+        }
+
+        @Override
+        public int find(@NonNull NodeSnapshot snapshot) {
+            this.snapshot = snapshot;
+            this.index = lookup.find(snapshot);
+            return index;
+        }
+    }
+
+    private final SnapshotCache snapshots;
+    private final ScreenFingerprint fingerprint;
+    private final Map<Key, Location> locations = new LinkedHashMap<Key, Location>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Location> eldest) {
+            return size() > Constants.Limits.MAX_LOCATION_MEMOS;
+        }
+    };
+    private final Map<Long, StepStats> stepStats = new HashMap<>();
+
+    LocationMemo(@NonNull SnapshotCache snapshots, @NonNull ScreenFingerprint fingerprint) {
+        this.snapshots = snapshots;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Whether an op's target location can be memoized
+     */
+    static boolean supports(@NonNull ExecutionPlan.Op op) {
+        // A selector with an exact view id already resolves in one query
+        return op.getCode() == ExecutionPlan.OpCode.TEXT_SEARCH && op.getWindowTarget() == null
+                && (op.getSelector() == null || !op.getSelector().hasViewIdFastPath());
+    }
+
+    /**
+     * Fetch the op's target from its memo if still valid, else by a full
+     * search with {@code lookup}, remembering where it was found. The caller
+     * owns the returned node.
+     */
+    @Nullable
+    AccessibilityNodeInfo resolve(@NonNull ExecutionPlan.Op op, @NonNull SnapshotCache.Lookup lookup) {
+        long screen = fingerprint.get();
+        if (screen == 0) {
+            return null; // No active window
+        }
+        Key key = new Key(op.getStep().getTaskId(), op.getStep().getId(), screen);
+        Location location;
+        synchronized (this) {
+            location = locations.get(key);
+        }
+        if (location != null) {
+            AccessibilityNodeInfo node = verify(op, location);
+            statsFor(op.getStep().getId()).record(node != null);
+            if (node != null) {
+                return node;
+            }
+            synchronized (this) {
+                locations.remove(key);
+            }
+        } else {
+            statsFor(op.getStep().getId()).record(false);
+        }
+
+        Located located = new Located(lookup);
+        AccessibilityNodeInfo node = snapshots.find(located);
+        if (node != null) {
+            Location found = new Location(located.snapshot, located.index);
+            synchronized (this) {
+                locations.put(key, found);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Fetch the remembered node, if it still is the op's target
+     */
+    @Nullable
+    private AccessibilityNodeInfo verify(ExecutionPlan.Op op, Location location) {
+        if (location.viewId != null) {
+            List<AccessibilityNodeInfo> nodes = snapshots.findByViewId(location.viewId);
+            AccessibilityNodeInfo match = null;
+            for (AccessibilityNodeInfo node : nodes) {
+                if (match == null && matches(op, location, node)) {
+                    match = node;
+                } else {
+                    node.recycle();
+                }
+            }
+            return match;
+        }
+        AccessibilityNodeInfo node = snapshots.acquirePath(location.path);
+        if (node != null && !matches(op, location, node)) {
+            node.recycle();
+            return null;
+        }
+        return node;
+    }
+
+    private static boolean matches(ExecutionPlan.Op op, Location location, AccessibilityNodeInfo node) {
+        Rect bounds = new Rect();
+        node.getBoundsInScreen(bounds);
+        if (!bounds.equals(location.bounds) || !node.isVisibleToUser()) {
+            return false;
+        }
+        if (op.getSelector() != null) {
+            return op.getSelector().matchesTarget(node);
+        }
+        return op.getQuery().matches(node.getText(), node.getContentDescription());
+    }
+
+    private synchronized StepStats statsFor(long stepId) {
+        StepStats stats = stepStats.get(stepId);
+        if (stats == null) {
+            stats = new StepStats();
+            stepStats.put(stepId, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Memo outcomes of a step so far, or null if it never used the memo
+     */
+    @Nullable
+    public synchronized StepStats getStepStats(long stepId) {
+        return stepStats.get(stepId);
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        long hits = 0;
+        long misses = 0;
+        for (StepStats stats : stepStats.values()) {
+            hits += stats.getHits();
+            misses += stats.getMisses();
+        }
+        return String.format(Locale.US, "steps=%d hit/miss=%d/%d entries=%d",
+                stepStats.size(), hits, misses, locations.size());
+    }
+}
@@ -0,0 +1,144 @@
+package com.thebluecode.trxautophone.executor;
+
+import android.graphics.Rect;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.thebluecode.trxautophone.service.NodeSelector;
+import com.thebluecode.trxautophone.service.NodeSnapshot;
+import com.thebluecode.trxautophone.service.NodeTextIndex;
+import com.thebluecode.trxautophone.service.SnapshotCache;
+
+/**
+ * Resolves the target node of an upcoming TEXT_SEARCH or INPUT_TEXT op while
+ * the executor is only waiting, so the op can fire without a tree query.
+ *
+ * A prefetched node is only used after it has been refreshed and still
+ * matches: attached, visible, with non-empty bounds and text still matching
+ * the op's query, or input focus. Otherwise the caller falls back to a fresh lookup.
+ *
+ * The held node is execution-thread state; {@link #resolve} and
+ * {@link #isStillValid} do the blocking work and may run on any thread.
+ */
+class NodePrefetcher {
+    private final SnapshotCache snapshots;
+    private final LocationMemo memo;
+
+    private ExecutionPlan.Op op;
+    private AccessibilityNodeInfo node;
+
+    NodePrefetcher(@NonNull SnapshotCache snapshots, @NonNull LocationMemo memo) {
+        this.snapshots = snapshots;
+        this.memo = memo;
+    }
+
+    /**
+     * Whether an op's target can be looked up ahead of time
+     */
+    static boolean supports(@Nullable ExecutionPlan.Op op) {
+        if (op == null) {
+            return false;
+        }
+        switch (op.getCode()) {
+            case TEXT_SEARCH:
+            case INPUT_TEXT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Keep the result of a lookup made ahead of time for {@link #take}
+     */
+    void offer(@NonNull ExecutionPlan.Op op, @Nullable AccessibilityNodeInfo node) {
+        clear();
+        this.op = op;
+        this.node = node;
+    }
+
+    /**
+     * Hand out the node prefetched for the op, not yet validated; check it
+     * with {@link #isStillValid} before use. The caller owns the returned node.
+     */
+    @Nullable
+    AccessibilityNodeInfo take(@NonNull ExecutionPlan.Op op) {
+        if (this.op != op || node == null) {
+            clear();
+            return null;
+        }
+        AccessibilityNodeInfo candidate = node;
+        this.node = null;
+        this.op = null;
+        return candidate;
+    }
+
+    /**
+     * Drop any prefetched node
+     */
+    void clear() {
+        if (node != null) {
+            node.recycle();
+            node = null;
+        }
+        op = null;
+    }
+
+    /**
+     * Whether a lookup for this op was made ahead of time, found or not
+     */
+    boolean isPrefetched(@NonNull ExecutionPlan.Op op) {
+        return this.op == op;
+    }
+
+    /**
+     * Look up an op's target node, at its memoized location or in the current
+     * screen snapshot, and fetch it live
+     */
+    @Nullable
+    AccessibilityNodeInfo resolve(@NonNull ExecutionPlan.Op op) {
+        switch (op.getCode()) {
+            case TEXT_SEARCH:
+                NodeSelector selector = op.getSelector();
+                NodeTextIndex.Query query = op.getQuery();
+                if (LocationMemo.supports(op)) {
+                    return memo.resolve(op, selector != null ? selector::find : snapshot -> snapshot.find(query));
+                }
+                if (selector != null) {
+                    return snapshots.find(selector, op.getWindowTarget());
+                }
+                return snapshots.find(snapshot -> snapshot.find(query), op.getWindowTarget());
+            case INPUT_TEXT:
+                return snapshots.find(NodeSnapshot::findFocused);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Refresh the node from the app and check it still is the op's target
+     */
+    static boolean isStillValid(@NonNull ExecutionPlan.Op op, @NonNull AccessibilityNodeInfo candidate) {
+        if (!candidate.refresh() || !candidate.isVisibleToUser()) {
+            return false;
+        }
+        Rect bounds = new Rect();
+        candidate.getBoundsInScreen(bounds);
+        if (bounds.isEmpty()) {
+            return false;
+        }
+        switch (op.getCode()) {
+            case TEXT_SEARCH:
+                if (op.getSelector() != null) {
+                    return op.getSelector().matchesTarget(candidate);
+                }
+                return op.getQuery().matches(candidate.getText(), candidate.getContentDescription());
+            case INPUT_TEXT:
+                return candidate.isFocused();
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.thebluecode.trxautophone.executor;
+
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small, bounded pool of worker threads for blocking node queries and node
+ * actions, so binder calls into the target app never hold up the execution
+ * thread. Several queries may run at once, e.g. a speculative lookup for the
+ * next step alongside the current one.
+ *
+ * Results are handed back on the execution thread's handler. A cancelled
+ * query's result is never delivered; a node it produced is disposed of
+ * instead. The running binder call itself cannot be interrupted, so
+ * cancelling only stops waiting for it. When the queue is full the query runs
+ * on the calling thread, which throttles the caller rather than dropping work.
+ */
+class NodeQueryPool {
+    private static final String TAG = "NodeQueryPool";
+
+    /**
+     * Work done on a worker thread
+     */
+    interface Query<T> {
+        @Nullable
+        T run() throws Exception;
+    }
+
+    /**
+     * Receives a query's outcome on the result thread
+     */
+    interface Callback<T> {
+        void onResult(@Nullable T result, @Nullable Exception error);
+    }
+
+    /**
+     * Releases a result nobody will receive
+     */
+    interface Disposer<T> {
+        void dispose(@NonNull T result);
+    }
+
+    /**
+     * Handle of a submitted query
+     */
+    static final class Ticket {
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private volatile Future<?> future;
+
+        /**
+         * Drop the query: its result will not be delivered
+         */
+        void cancel() {
+            if (cancelled.compareAndSet(false, true)) {
+                Future<?> f = future;
+                if (f != null) {
+                    f.cancel(false);
+                }
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled.get();
+        }
+    }
+
+    private final Handler resultHandler;
+    private final ThreadPoolExecutor executor;
+
+    NodeQueryPool(@NonNull Handler resultHandler, int threads, int queueCapacity) {
+        this.resultHandler = resultHandler;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                        runnable.run();
+                    }, TAG + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Run a query on a worker and deliver its outcome to {@code callback}
+     * unless the returned ticket is cancelled first
+     */
+    @NonNull
+    <T> Ticket submit(@NonNull Query<T> query, @NonNull Callback<T> callback) {
+        return submit(query, callback, null);
+    }
+
+    /**
+     * Like {@link #submit(Query, Callback)}, disposing of the result if the
+     * query was cancelled meanwhile
+     */
+    @NonNull
+    <T> Ticket submit(@NonNull Query<T> query, @NonNull Callback<T> callback,
+                      @Nullable Disposer<T> disposer) {
+        Ticket ticket = new Ticket();
+        Runnable task = () -> execute(ticket, query, callback, disposer);
+        try {
+            ticket.future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Query queue full, running on the caller");
+            task.run();
+        }
+        return ticket;
+    }
+
+    private <T> void execute(Ticket ticket, Query<T> query, Callback<T> callback,
+                             @Nullable Disposer<T> disposer) {
+        if (ticket.isCancelled()) {
+            return;
+        }
+        T result = null;
+        Exception error = null;
+        try {
+            result = query.run();
+        } catch (Exception e) {
+            error = e;
+        }
+        final T delivered = result;
+        final Exception failure = error;
+        boolean posted = resultHandler.post(() -> {
+            if (ticket.isCancelled()) {
+                dispose(delivered, disposer);
+                return;
+            }
+            callback.onResult(delivered, failure);
+        });
+        if (!posted) {
+            dispose(delivered, disposer); // Result thread has quit
+        }
+    }
+
+    private static <T> void dispose(@Nullable T result, @Nullable Disposer<T> disposer) {
+        if (result != null && disposer != null) {
+            disposer.dispose(result);
+        }
+    }
+
+    /**
+     * Stop accepting queries; running ones finish, their results are dropped
+     * once the result thread has quit
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,135 @@
+package com.thebluecode.trxautophone.executor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.thebluecode.trxautophone.models.Task;
+import com.thebluecode.trxautophone.utils.Constants;
+
+import org.json.JSONObject;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How often, and after how long, a failed step is attempted again.
+ *
+ * A task carries a default policy; a step can override it with a "retry"
+ * object in its action data, e.g. {"mode": "exponential", "max": 3,
+ * "delay": 200}. Retry counts are capped at {@link Constants.Limits#MAX_RETRIES}
+ * and every delay at {@link Constants.Limits#MAX_RETRY_DELAY}, whatever the
+ * task or step asks for.
+ */
+public final class RetryPolicy {
+
+    /**
+     * Backoff between attempts
+     */
+    public enum Mode {
+        /** Never retry */
+        NONE,
+        /** The same delay before every retry */
+        FIXED,
+        /** The delay doubles with every retry */
+        EXPONENTIAL,
+        /** Exponential, with the upper half of each delay randomized */
+        JITTERED
+    }
+
+    public static final RetryPolicy NONE = new RetryPolicy(Mode.NONE, 0, 0);
+
+    private final Mode mode;
+    private final int maxRetries;
+    private final long baseDelay;
+
+    private RetryPolicy(Mode mode, int maxRetries, long baseDelay) {
+        this.mode = mode;
+        this.maxRetries = mode == Mode.NONE ? 0 : Math.max(0, Math.min(maxRetries, Constants.Limits.MAX_RETRIES));
+        this.baseDelay = Math.max(0, Math.min(baseDelay, Constants.Limits.MAX_RETRY_DELAY));
+    }
+
+    @NonNull
+    public static RetryPolicy of(@NonNull Mode mode, int maxRetries, long baseDelay) {
+        return mode == Mode.NONE || maxRetries <= 0 ? NONE : new RetryPolicy(mode, maxRetries, baseDelay);
+    }
+
+    /**
+     * The task-wide policy
+     */
+    @NonNull
+    public static RetryPolicy forTask(@NonNull Task task) {
+        return of(parseMode(task.getRetryMode()), task.getMaxRetries(), task.getRetryDelay());
+    }
+
+    /**
+     * A step's "retry" override, or null when the step has none
+     */
+    @Nullable
+    static RetryPolicy fromJson(@Nullable JSONObject retry) {
+        if (retry == null) {
+            return null;
+        }
+        return of(parseMode(retry.optString("mode", Mode.FIXED.name())),
+                retry.optInt("max", Constants.Limits.MAX_RETRIES),
+                retry.optLong("delay", Constants.Limits.RETRY_DELAY));
+    }
+
+    @NonNull
+    private static Mode parseMode(@Nullable String mode) {
+        if (mode == null || mode.isEmpty()) {
+            return Mode.NONE;
+        }
+        try {
+            return Mode.valueOf(mode.toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            return Mode.NONE;
+        }
+    }
+
+    /**
+     * Whether another attempt is allowed after {@code retries} retries
+     */
+    public boolean allowsRetry(int retries) {
+        return retries < maxRetries;
+    }
+
+    /**
+     * Delay before the given retry (1-based)
+     */
+    public long getDelay(int retry) {
+        switch (mode) {
+            case FIXED:
+                return baseDelay;
+            case EXPONENTIAL:
+                return backoff(retry);
+            case JITTERED:
+                long backoff = backoff(retry);
+                long half = backoff / 2;
+                return half + (backoff > half ? ThreadLocalRandom.current().nextLong(backoff - half + 1) : 0);
+            default:
+                return 0;
+        }
+    }
+
+    private long backoff(int retry) {
+        long delay = baseDelay;
+        // Doubles until the cap, so a large base or late retry cannot overflow
+        for (int i = 1; i < retry && delay < Constants.Limits.MAX_RETRY_DELAY; i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, Constants.Limits.MAX_RETRY_DELAY);
+    }
+
+    @NonNull
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public long getBaseDelay() {
+        return baseDelay;
+    }
+}
@@ -0,0 +1,255 @@
+package com.thebluecode.trxautophone.executor;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.thebluecode.trxautophone.models.Task;
+import com.thebluecode.trxautophone.utils.Constants;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Priority queue of task runs in front of a {@link TaskExecutor}.
+ *
+ * Runs are ordered by priority, then by submission order. A run submitted
+ * with a strictly higher priority than the active one suspends it at the next
+ * step boundary; the suspended run goes back into the queue at its original
+ * position and resumes where it stopped. The next run is started from the
+ * executor's own completion callback on the execution thread, so queued runs
+ * follow each other without an idle gap.
+ */
+public class RunQueue implements TaskExecutor.RunListener {
+    private static final String TAG = "RunQueue";
+
+    /**
+     * Run priority, lowest first
+     */
+    public enum Priority {
+        LOW,
+        NORMAL,
+        HIGH,
+        URGENT
+    }
+
+    /**
+     * What happened to a submitted run
+     */
+    public enum SubmitResult {
+        /** Started immediately on an idle executor */
+        STARTED,
+        /** Waiting behind the active run */
+        QUEUED,
+        /** Will start as soon as the lower-priority active run is suspended */
+        PREEMPTED,
+        /** Dropped because the queue is full */
+        REJECTED
+    }
+
+    private static final class Entry {
+        final Task task;
+        final Priority priority;
+        final long sequence;
+        long enqueuedAt;
+        TaskExecutor.SuspendedRun suspended;
+        CheckpointJournal.Checkpoint checkpoint;
+
+        Entry(Task task, Priority priority, long sequence) {
+            this.task = task;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Entry> ORDER = (a, b) -> {
+        int byPriority = b.priority.compareTo(a.priority);
+        return byPriority != 0 ? byPriority : Long.compare(a.sequence, b.sequence);
+    };
+
+    private final TaskExecutor executor;
+    private final int maxDepth;
+    private final PriorityQueue<Entry> pending = new PriorityQueue<>(ORDER);
+    private final ExecutionStats.Latency waitTime = new ExecutionStats.Latency();
+    private Entry active;
+    private boolean suspending;
+    private long nextSequence;
+    private int submitted;
+    private int rejected;
+    private int preemptions;
+
+    public RunQueue(@NonNull TaskExecutor executor) {
+        this(executor, Constants.Limits.MAX_QUEUE_DEPTH);
+    }
+
+    public RunQueue(@NonNull TaskExecutor executor, int maxDepth) {
+        this.executor = executor;
+        this.maxDepth = Math.max(0, maxDepth);
+        executor.setRunListener(this);
+    }
+
+    /**
+     * Submit a task run. Safe to call from any thread.
+     */
+    @NonNull
+    public synchronized SubmitResult submit(@NonNull Task task, @NonNull Priority priority) {
+        return enqueue(new Entry(task, priority, nextSequence++));
+    }
+
+    /**
+     * Submit a run that continues from a journal checkpoint
+     */
+    @NonNull
+    public synchronized SubmitResult submitFromCheckpoint(@NonNull Task task,
+                                                          @NonNull CheckpointJournal.Checkpoint checkpoint,
+                                                          @NonNull Priority priority) {
+        Entry entry = new Entry(task, priority, nextSequence++);
+        entry.checkpoint = checkpoint;
+        return enqueue(entry);
+    }
+
+    private SubmitResult enqueue(Entry entry) {
+        Task task = entry.task;
+        Priority priority = entry.priority;
+        submitted++;
+        entry.enqueuedAt = SystemClock.uptimeMillis();
+
+        if (active == null) {
+            return start(entry) ? SubmitResult.STARTED : SubmitResult.REJECTED;
+        }
+
+        if (pending.size() >= maxDepth) {
+            rejected++;
+            Log.w(TAG, "Run queue full (" + maxDepth + "), dropping task: " + task.getName());
+            return SubmitResult.REJECTED;
+        }
+
+        pending.add(entry);
+        if (priority.compareTo(active.priority) > 0) {
+            if (!suspending) {
+                suspending = true;
+                preemptions++;
+                Log.i(TAG, "Preempting " + active.task.getName() + " for " + task.getName());
+                executor.requestSuspend();
+            }
+            return SubmitResult.PREEMPTED;
+        }
+
+        Log.i(TAG, "Queued task: " + task.getName() + " (" + pending.size() + " waiting)");
+        return SubmitResult.QUEUED;
+    }
+
+    @Override
+    public synchronized void onRunFinished(@NonNull Task task, boolean success) {
+        active = null;
+        suspending = false;
+        startNext();
+    }
+
+    @Override
+    public synchronized void onRunSuspended(@NonNull TaskExecutor.SuspendedRun run) {
+        Entry entry = active;
+        active = null;
+        suspending = false;
+        if (entry != null) {
+            // Keep the original sequence so it resumes ahead of later equal-priority runs
+            entry.suspended = run;
+            entry.enqueuedAt = SystemClock.uptimeMillis();
+            pending.add(entry);
+        }
+        startNext();
+    }
+
+    @Override
+    public synchronized void onSuspendDropped() {
+        // The targeted run already finished or was suspended, and its callback
+        // started the next run; nothing is left to preempt
+        suspending = false;
+    }
+
+    /**
+     * Drop every waiting run, including suspended ones. The active run is not
+     * affected.
+     */
+    public synchronized void clear() {
+        int dropped = pending.size();
+        pending.clear();
+        if (dropped > 0) {
+            Log.i(TAG, "Cleared " + dropped + " queued runs");
+        }
+    }
+
+    private void startNext() {
+        Entry entry;
+        while ((entry = pending.poll()) != null) {
+            if (start(entry)) {
+                return;
+            }
+        }
+    }
+
+    private boolean start(Entry entry) {
+        // Set before starting: on the execution thread a run that fails
+        // validation finishes, and starts its successor, inside this call
+        active = entry;
+        waitTime.record(SystemClock.uptimeMillis() - entry.enqueuedAt);
+        boolean started;
+        if (entry.suspended != null) {
+            started = executor.resumeRun(entry.suspended);
+        } else if (entry.checkpoint != null) {
+            started = executor.resumeFromCheckpoint(entry.task, entry.checkpoint);
+        } else {
+            started = executor.executeTask(entry.task);
+        }
+        if (!started) {
+            if (active == entry) {
+                active = null;
+            }
+            Log.e(TAG, "Executor busy, could not start task: " + entry.task.getName());
+        }
+        return started;
+    }
+
+    /**
+     * Number of runs waiting, suspended ones included
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Task of the run the queue last started, or null when idle
+     */
+    @Nullable
+    public synchronized Task getActiveTask() {
+        return active != null ? active.task : null;
+    }
+
+    public synchronized int getSubmittedCount() {
+        return submitted;
+    }
+
+    public synchronized int getRejectedCount() {
+        return rejected;
+    }
+
+    public synchronized int getPreemptionCount() {
+        return preemptions;
+    }
+
+    /**
+     * Average time runs spent queued before starting or resuming, in ms
+     */
+    public synchronized double getAverageWaitTime() {
+        return waitTime.getAverage();
+    }
+
+    /**
+     * Longest time a run spent queued before starting or resuming, in ms
+     */
+    public synchronized long getMaxWaitTime() {
+        return waitTime.getMax();
+    }
+}
@@ -2,9 +2,12 @@ package com.thebluecode.trxautophone.executor;
 
 import android.accessibilityservice.AccessibilityService;
 import android.accessibilityservice.GestureDescription;
-import android.graphics.Path;
+import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.accessibility.AccessibilityNodeInfo;
 
@@ -14,35 +17,143 @@ import androidx.annotation.Nullable;
 import com.thebluecode.trxautophone.AutoClickApplication;
 import com.thebluecode.trxautophone.models.Step;
 import com.thebluecode.trxautophone.models.Task;
-import com.thebluecode.trxautophone.utils.AccessibilityUtils;
+import com.thebluecode.trxautophone.service.AutoClickAccessibilityService;
+import com.thebluecode.trxautophone.service.NodeSelector;
+import com.thebluecode.trxautophone.service.NodeSnapshot;
+import com.thebluecode.trxautophone.service.NodeTextIndex;
+import com.thebluecode.trxautophone.service.NodeWaiterRegistry;
+import com.thebluecode.trxautophone.service.ScreenSettleDetector;
+import com.thebluecode.trxautophone.service.SnapshotCache;
 import com.thebluecode.trxautophone.utils.Constants;
-import com.thebluecode.trxautophone.utils.NotificationUtils;
-
-import org.json.JSONObject;
+import com.thebluecode.trxautophone.utils.PreferenceManager;
 
+import java.io.File;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Enhanced TaskExecutor with improved error handling and execution flow
+ * Enhanced TaskExecutor with improved error handling and execution flow.
+ *
+ * All execution state is owned by a dedicated high-priority execution thread:
+ * steps, delays and gesture results run there, and only
+ * {@link ExecutionCallback} and notification updates cross to the main thread.
+ * Blocking node queries and node actions run on a {@link NodeQueryPool} and
+ * hand their results back to the execution thread.
  */
 public class TaskExecutor {
     private static final String TAG = "TaskExecutor";
 
     private final AutoClickApplication application;
-    private final AccessibilityService service;
+    private final AutoClickAccessibilityService service;
     private final Handler mainHandler;
-    private final ExecutionCallback callback;
-
-    private Task currentTask;
-    private List<Step> steps;
-    private int currentStepIndex;
-    private int currentRepeatCount;
+    private final HandlerThread executionThread;
+    private final Handler executionHandler;
+    private final ExecutionEventRing eventRing;
+    private final ExecutionEventDispatcher eventDispatcher;
+    private RunListener runListener;
+    private final CheckpointJournal journal;
+
+    private volatile Task currentTask;
+    private volatile ExecutionPlan plan;
+    private ExecutionPlan.Op currentOp;
+    private volatile int currentStepIndex;
+    private volatile int currentRepeatCount;
     private final AtomicBoolean isRunning;
     private final AtomicBoolean isPaused;
     private final AtomicInteger successfulSteps;
-    private long lastStepTime;
+    private final AtomicInteger failedSteps;
+    private int[] loopCounters;
+    // CheckpointJournal.versionOf the running task, taken once per run
+    private long taskVersion;
+    // Fingerprint each screen CONDITION last saw, 0 if none yet
+    private long[] screenMarks;
+    private boolean inDispatchLoop;
+    private boolean advanceRequested;
+    private boolean stepInFlight;
+    private boolean suspendRequested;
+    // Run claimed by the latest start call, and the run whose state is loaded (execution thread)
+    private volatile RunToken runToken;
+    private RunToken activeRun;
+    private volatile long lastStepTime;
+    private long stepScheduledAt;
+    private long timelineCursor;
+    private SchedulingMode schedulingMode = SchedulingMode.RELATIVE;
+    private boolean coalesceGestures;
+    private boolean waitForIdle;
+    private long idleWindow;
+    private ScreenSettleDetector.SettleWait settleWait;
+    private final NodePrefetcher prefetcher;
+    private final NodeQueryPool queryPool;
+    // Node query of the step in flight, and of the speculative lookup
+    private NodeQueryPool.Ticket stepQuery;
+    private NodeQueryPool.Ticket speculativeQuery;
+    private final LocationMemo locationMemo;
+    private ExecutionPlan.Op speculativeOp;
+
+    private ExecutionStats stats;
+    private volatile ExecutionStats lastRunStats;
+    private final AtomicBoolean mainProbePending = new AtomicBoolean(false);
+    private volatile long mainProbePostedAt;
+
+    // Reused across every step so replaying the plan allocates nothing per op
+    private final Runnable executeCurrentStep = () -> executeStep(currentOp);
+    private final Runnable advanceRunnable = this::executeNextStep;
+    private final Runnable completeCurrentStep = () -> onStepComplete(currentOp, true);
+    private final Runnable executeSettledStep = this::onScreenSettled;
+    private final Runnable mainThreadProbe = this::onMainThreadProbe;
+    private final Runnable speculativeLookup = this::onSpeculativeLookup;
+    private final Runnable stepWatchdog = this::onStepStalled;
+    private boolean awaitingGesture;
+    // Ops [splitFrom, splitUntil) of a failed fused gesture, now run one stroke at a time
+    private int splitFrom;
+    private int splitUntil;
+    private int stallRetries;
+    private int retryAttempt;
+    private RetryPolicy taskRetryPolicy = RetryPolicy.NONE;
+    private final Runnable retryCurrentStep = () -> executeStep(currentOp);
+    private final BurstController burstController;
+    private final BurstController.Listener burstListener = this::onBurstFinished;
+    private final NodeWaiterRegistry.Listener waitListener = found -> {
+        pendingWait = null;
+        onStepComplete(currentOp, found);
+    };
+    private NodeWaiterRegistry.Waiter pendingWait;
+    private final AccessibilityService.GestureResultCallback gestureCallback =
+            new AccessibilityService.GestureResultCallback() {
+                @Override
+                public void onCompleted(GestureDescription gestureDescription) {
+                    onGestureResult(gestureDescription, true);
+                }
+
+                @Override
+                public void onCancelled(GestureDescription gestureDescription) {
+                    onGestureResult(gestureDescription, false);
+                }
+            };
+
+    /**
+     * How step delays are turned into fire times
+     */
+    public enum SchedulingMode {
+        /** Each delay starts when the previous step finishes; latency accumulates */
+        RELATIVE,
+        /** Each step fires at an absolute deadline on the run's planned timeline */
+        ABSOLUTE
+    }
+
+    /**
+     * Identity of one run. The run's callbacks are posted with it as their
+     * token, so stopping the run removes exactly those and nothing a newer
+     * run has posted.
+     */
+    private static final class RunToken {
+        private final Task task;
+
+        RunToken(Task task) {
+            this.task = task;
+        }
+    }
 
     public interface ExecutionCallback {
         void onExecutionStarted(Task task);
@@ -54,48 +165,248 @@ public class TaskExecutor {
         void onExecutionError(String error);
     }
 
+    /**
+     * Hooks for whoever schedules runs onto this executor. Invoked on the
+     * execution thread, so a new run started from here begins immediately.
+     */
+    public interface RunListener {
+        /** The run ended: completed, failed validation or was stopped */
+        void onRunFinished(@NonNull Task task, boolean success);
+
+        /** The run was suspended by {@link #requestSuspend()} and can be resumed later */
+        void onRunSuspended(@NonNull SuspendedRun run);
+
+        /** A {@link #requestSuspend()} was dropped because the run it targeted already ended */
+        void onSuspendDropped();
+    }
+
+    /**
+     * Snapshot of a run taken between two steps, used to resume it later
+     * exactly where it stopped
+     */
+    public static final class SuspendedRun {
+        private final Task task;
+        private final ExecutionPlan plan;
+        private final int stepIndex;
+        private final int repeatCount;
+        private final int[] loopCounters;
+        private final int successfulSteps;
+        private final int failedSteps;
+        private final ExecutionStats stats;
+        private final SchedulingMode schedulingMode;
+        private final boolean waitForIdle;
+        private final long idleWindow;
+
+        private SuspendedRun(TaskExecutor executor) {
+            this.task = executor.currentTask;
+            this.plan = executor.plan;
+            this.stepIndex = executor.currentStepIndex;
+            this.repeatCount = executor.currentRepeatCount;
+            this.loopCounters = executor.loopCounters.clone();
+            this.successfulSteps = executor.successfulSteps.get();
+            this.failedSteps = executor.failedSteps.get();
+            this.stats = executor.stats;
+            this.schedulingMode = executor.schedulingMode;
+            this.waitForIdle = executor.waitForIdle;
+            this.idleWindow = executor.idleWindow;
+        }
+
+        @NonNull
+        public Task getTask() {
+            return task;
+        }
+
+        public int getStepIndex() {
+            return stepIndex;
+        }
+
+        public int getRepeatCount() {
+            return repeatCount;
+        }
+    }
+
     public TaskExecutor(@NonNull AutoClickApplication application,
-                       @NonNull AccessibilityService service,
+                       @NonNull AutoClickAccessibilityService service,
                        @NonNull ExecutionCallback callback) {
         this.application = application;
         this.service = service;
-        this.callback = callback;
+        this.eventRing = new ExecutionEventRing(Constants.Limits.EVENT_RING_CAPACITY);
+        this.eventDispatcher = new ExecutionEventDispatcher(
+                application, callback, eventRing, Constants.Limits.EVENT_DRAIN_INTERVAL);
         this.mainHandler = new Handler(Looper.getMainLooper());
+        this.executionThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        this.executionThread.start();
+        this.executionHandler = new Handler(executionThread.getLooper());
+        this.burstController = new BurstController(service, executionHandler);
+        this.locationMemo = new LocationMemo(service.getSnapshotCache(), service.getScreenFingerprint());
+        this.prefetcher = new NodePrefetcher(service.getSnapshotCache(), locationMemo);
+        this.queryPool = new NodeQueryPool(executionHandler,
+                Constants.Limits.NODE_QUERY_THREADS, Constants.Limits.NODE_QUERY_QUEUE);
+        this.journal = new CheckpointJournal(
+                new File(application.getFilesDir(), Constants.Files.EXECUTION_JOURNAL));
         this.isRunning = new AtomicBoolean(false);
         this.isPaused = new AtomicBoolean(false);
         this.successfulSteps = new AtomicInteger(0);
+        this.failedSteps = new AtomicInteger(0);
     }
 
     /**
-     * Start executing a task
+     * Set the listener told when runs finish or are suspended
      */
-    public void executeTask(@NonNull Task task) {
-        if (isRunning.get()) {
+    public void setRunListener(@Nullable RunListener listener) {
+        this.runListener = listener;
+    }
+
+    /**
+     * Start executing a task. Safe to call from any thread; the run itself
+     * happens on the execution thread, and a call made there (e.g. from
+     * {@link RunListener}) starts the run without another hop.
+     */
+    public boolean executeTask(@NonNull Task task) {
+        if (!isRunning.compareAndSet(false, true)) {
             Log.w(TAG, "Task execution already in progress");
-            return;
+            return false;
+        }
+        isPaused.set(false);
+        RunToken token = new RunToken(task);
+        runToken = token;
+        if (isOnExecutionThread()) {
+            startExecution(token, null);
+        } else {
+            executionHandler.post(() -> startExecution(token, null));
         }
+        return true;
+    }
 
+    /**
+     * Start a task at the position recorded in a journal checkpoint, e.g.
+     * after the service was killed mid-run. The checkpoint must belong to
+     * this version of the task.
+     */
+    public boolean resumeFromCheckpoint(@NonNull Task task,
+                                        @NonNull CheckpointJournal.Checkpoint checkpoint) {
+        if (!isRunning.compareAndSet(false, true)) {
+            Log.w(TAG, "Task execution already in progress");
+            return false;
+        }
+        isPaused.set(false);
+        RunToken token = new RunToken(task);
+        runToken = token;
+        if (isOnExecutionThread()) {
+            startExecution(token, checkpoint);
+        } else {
+            executionHandler.post(() -> startExecution(token, checkpoint));
+        }
+        return true;
+    }
+
+    /**
+     * Resume a suspended run where it stopped. Same threading rules as
+     * {@link #executeTask(Task)}.
+     */
+    public boolean resumeRun(@NonNull SuspendedRun run) {
+        if (!isRunning.compareAndSet(false, true)) {
+            Log.w(TAG, "Task execution already in progress");
+            return false;
+        }
+        isPaused.set(false);
+        RunToken token = new RunToken(run.task);
+        runToken = token;
+        if (isOnExecutionThread()) {
+            restoreRun(token, run);
+        } else {
+            executionHandler.post(() -> restoreRun(token, run));
+        }
+        return true;
+    }
+
+    /**
+     * Ask the current run to suspend at the next step boundary. A step that is
+     * only waiting out its delay has not started yet and is suspended at once;
+     * a step in flight finishes first. The outcome is reported through
+     * {@link RunListener#onRunSuspended}.
+     *
+     * The request targets the run most recently started; it is decided on the
+     * execution thread, against the run actually loaded there, so a request
+     * made right after a start still reaches that run.
+     */
+    public void requestSuspend() {
+        final RunToken token = runToken;
+        executionHandler.postAtTime(() -> {
+            if (!isRunning.get() || token == null || token != activeRun) {
+                Log.w(TAG, "Run to suspend already ended");
+                if (runListener != null) {
+                    runListener.onSuspendDropped();
+                }
+                return;
+            }
+            if (stepInFlight) {
+                suspendRequested = true;
+                return;
+            }
+            executionHandler.removeCallbacks(executeCurrentStep);
+            executionHandler.removeCallbacks(advanceRunnable);
+            cancelSpeculation();
+            if (settleWait != null) {
+                settleWait.cancel();
+                settleWait = null;
+            }
+            suspendRun();
+        }, token, SystemClock.uptimeMillis());
+    }
+
+    /**
+     * Post a callback of the loaded run, tagged so only stopping that run
+     * removes it (execution thread)
+     */
+    private void postForRun(Runnable callback, long uptimeMillis) {
+        executionHandler.postAtTime(callback, activeRun, uptimeMillis);
+    }
+
+    private boolean isOnExecutionThread() {
+        return Looper.myLooper() == executionThread.getLooper();
+    }
+
+    /**
+     * Prepare state and run the first step, or the checkpointed one (execution thread)
+     */
+    private void startExecution(@NonNull RunToken token, @Nullable CheckpointJournal.Checkpoint checkpoint) {
+        // A stopped run's cleanup may still be queued behind this start
+        cancelRunWork();
+        this.activeRun = token;
+        Task task = token.task;
         this.currentTask = task;
-        this.steps = task.getSteps();
+        this.plan = null;
+        this.stats = null;
         this.currentStepIndex = 0;
         this.currentRepeatCount = 1;
         this.successfulSteps.set(0);
+        this.failedSteps.set(0);
         this.lastStepTime = System.currentTimeMillis();
+        this.taskRetryPolicy = RetryPolicy.forTask(task);
+        loadRunOptions();
 
-        if (!validateTask()) {
+        if (!validateTask() || (checkpoint != null && !restoreCheckpoint(checkpoint))) {
+            isRunning.set(false);
+            if (runListener != null) {
+                runListener.onRunFinished(task, false);
+            }
             return;
         }
 
-        isRunning.set(true);
-        isPaused.set(false);
+        stats = new ExecutionStats(plan.size());
+        timelineCursor = SystemClock.uptimeMillis();
+        stats.start(timelineCursor);
 
-        Log.i(TAG, "Starting task execution: " + task.getName());
+        Log.i(TAG, "Starting task execution: " + task.getName() + " (" + plan.size() + " ops)"
+                + (checkpoint != null ? " from op " + currentStepIndex + ", repeat " + currentRepeatCount : ""));
+        subscribeScreenEvents();
         notifyExecutionStarted();
         executeNextStep();
     }
 
     /**
-     * Validate task before execution
+     * Validate task and compile its execution plan
      */
     private boolean validateTask() {
         if (currentTask == null) {
@@ -103,7 +414,8 @@ public class TaskExecutor {
             return false;
         }
 
-        if (steps == null || steps.isEmpty()) {
+        List<Step> steps = currentTask.getSteps();
+        if (steps.isEmpty()) {
             notifyError("Task has no steps");
             return false;
         }
@@ -113,292 +425,794 @@ public class TaskExecutor {
             return false;
         }
 
+        plan = ExecutionPlan.compile(steps, coalesceGestures);
+        if (plan.isEmpty()) {
+            notifyError("Task has no enabled steps");
+            return false;
+        }
+        loopCounters = new int[plan.getCounterCount()];
+        screenMarks = new long[plan.size()];
+        taskVersion = CheckpointJournal.versionOf(currentTask);
+
+        return true;
+    }
+
+    /**
+     * Position the freshly compiled run at a checkpoint, if it still matches
+     */
+    private boolean restoreCheckpoint(@NonNull CheckpointJournal.Checkpoint checkpoint) {
+        int[] counters = checkpoint.getLoopCounters();
+        if (checkpoint.getTaskId() != currentTask.getId()
+                || checkpoint.getTaskVersion() != taskVersion
+                || checkpoint.getOpCount() != plan.size()
+                || counters.length != loopCounters.length
+                || checkpoint.getStepIndex() < 0 || checkpoint.getStepIndex() > plan.size()
+                || checkpoint.getRepeatCount() < 1
+                || checkpoint.getRepeatCount() > currentTask.getRepeatCount()) {
+            notifyError("Task changed since the checkpoint was taken");
+            journal.finish(currentTask.getId());
+            return false;
+        }
+        currentStepIndex = checkpoint.getStepIndex();
+        currentRepeatCount = checkpoint.getRepeatCount();
+        successfulSteps.set(checkpoint.getSuccessfulSteps());
+        failedSteps.set(checkpoint.getFailedSteps());
+        System.arraycopy(counters, 0, loopCounters, 0, counters.length);
         return true;
     }
 
     /**
-     * Execute the next step in the sequence
+     * Restore a suspended run and continue it (execution thread)
+     */
+    private void restoreRun(@NonNull RunToken token, @NonNull SuspendedRun run) {
+        cancelRunWork();
+        this.activeRun = token;
+        this.currentTask = run.task;
+        this.plan = run.plan;
+        this.currentStepIndex = run.stepIndex;
+        this.currentRepeatCount = run.repeatCount;
+        this.loopCounters = run.loopCounters;
+        this.screenMarks = new long[run.plan.size()];
+        this.successfulSteps.set(run.successfulSteps);
+        this.failedSteps.set(run.failedSteps);
+        this.stats = run.stats;
+        this.schedulingMode = run.schedulingMode;
+        this.waitForIdle = run.waitForIdle;
+        this.idleWindow = run.idleWindow;
+        this.taskRetryPolicy = RetryPolicy.forTask(run.task);
+        this.taskVersion = CheckpointJournal.versionOf(run.task);
+        this.lastStepTime = System.currentTimeMillis();
+
+        // Time spent suspended is not schedule drift; restart the timeline from now
+        timelineCursor = SystemClock.uptimeMillis();
+
+        Log.i(TAG, "Resuming task execution: " + run.task.getName() + " at op " + run.stepIndex);
+        subscribeScreenEvents();
+        notifyExecutionResumed();
+        executeNextStep();
+    }
+
+    /**
+     * Ask for the window events this run needs: content changes only if an op
+     * reads the screen or steps wait for it to settle, batched no longer than
+     * the run can afford
+     */
+    private void subscribeScreenEvents() {
+        long latency = plan.getScreenReadDelay();
+        if (waitForIdle) {
+            latency = latency < 0 ? idleWindow : Math.min(latency, idleWindow);
+        }
+        service.getEventSubscription().onRunStarted(latency);
+    }
+
+    /**
+     * Hand the current run back to the run listener (execution thread)
+     */
+    private void suspendRun() {
+        SuspendedRun run = new SuspendedRun(this);
+        suspendRequested = false;
+        cancelStepQuery();
+        cancelSpeculation();
+        isRunning.set(false);
+        isPaused.set(false);
+        service.getEventSubscription().onRunFinished();
+        Log.i(TAG, "Suspending task execution: " + run.task.getName() + " at op " + run.stepIndex);
+        journal.flushNow();
+        notifyExecutionPaused();
+        if (runListener != null) {
+            runListener.onRunSuspended(run);
+        }
+    }
+
+    /**
+     * Execute the next op in the plan. Ops that complete synchronously request
+     * another advance instead of recursing, so long loops of instant ops run
+     * in constant stack depth.
      */
     private void executeNextStep() {
-        if (!isRunning.get() || isPaused.get()) {
+        if (inDispatchLoop) {
+            advanceRequested = true;
+            return;
+        }
+
+        inDispatchLoop = true;
+        try {
+            do {
+                advanceRequested = false;
+                advance();
+            } while (advanceRequested);
+        } finally {
+            inDispatchLoop = false;
+        }
+    }
+
+    /**
+     * Start the op at the current index
+     */
+    private void advance() {
+        stepInFlight = false;
+        executionHandler.removeCallbacks(stepWatchdog);
+        if (!isRunning.get()) {
+            return;
+        }
+        if (suspendRequested) {
+            suspendRun();
             return;
         }
+        if (isPaused.get()) {
+            return;
+        }
+
+        journal.checkpoint(currentTask.getId(), taskVersion, plan.size(),
+                currentStepIndex, currentRepeatCount, successfulSteps.get(), failedSteps.get(),
+                loopCounters);
 
-        if (currentStepIndex >= steps.size()) {
+        if (currentStepIndex >= plan.size()) {
             handleRepeatOrComplete();
             return;
         }
 
-        Step step = steps.get(currentStepIndex);
-        if (!step.isEnabled()) {
-            currentStepIndex++;
-            executeNextStep();
+        currentOp = plan.get(currentStepIndex);
+        if (!isSplit()) {
+            splitFrom = 0;
+            splitUntil = 0;
+        }
+        stallRetries = 0;
+        retryAttempt = 0;
+        if (currentOp.isSynthetic()) {
+            executeControl(currentOp);
             return;
         }
 
-        notifyStepStarted(step);
+        notifyStepStarted(currentOp.getStep());
+        probeMainThread();
 
         // Handle step delay
-        long delay = step.getDelay();
-        if (delay > 0) {
-            mainHandler.postDelayed(() -> executeStep(step), delay);
+        long now = SystemClock.uptimeMillis();
+        if (schedulingMode == SchedulingMode.ABSOLUTE) {
+            stepScheduledAt = timelineCursor + currentOp.getDelay();
+            timelineCursor = stepScheduledAt + currentOp.getNominalDuration();
         } else {
-            executeStep(step);
+            stepScheduledAt = now + currentOp.getDelay();
         }
+
+        if (stepScheduledAt > now && NodePrefetcher.supports(currentOp)) {
+            scheduleSpeculation(currentOp, stepScheduledAt);
+        }
+
+        if (stepScheduledAt > now && waitForIdle) {
+            // The delay is only an upper bound; go as soon as the screen is quiet
+            settleWait = service.getSettleDetector().awaitSettle(
+                    executionHandler, idleWindow, stepScheduledAt, executeSettledStep);
+        } else if (stepScheduledAt > now) {
+            postForRun(executeCurrentStep, stepScheduledAt);
+        } else {
+            executeStep(currentOp);
+        }
+    }
+
+    /**
+     * Run the current step once its delay was cut short by the screen settling.
+     * An early step is measured from when it actually fired, and on the
+     * drift-free timeline later steps move up with it.
+     */
+    private void onScreenSettled() {
+        settleWait = null;
+        long now = SystemClock.uptimeMillis();
+        if (now < stepScheduledAt) {
+            stats.recordSettle(stepScheduledAt - now);
+            if (schedulingMode == SchedulingMode.ABSOLUTE) {
+                timelineCursor = now + currentOp.getNominalDuration();
+            }
+            stepScheduledAt = now;
+        }
+        executeStep(currentOp);
     }
 
     /**
-     * Execute a single step
+     * Execute a single compiled op
      */
-    private void executeStep(Step step) {
+    private void executeStep(ExecutionPlan.Op op) {
         try {
-            Log.d(TAG, "Executing step: " + step.getSummary());
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Executing step: " + op.getStep().getSummary());
+            }
+            stepInFlight = true;
             lastStepTime = System.currentTimeMillis();
+            if (stallRetries == 0 && retryAttempt == 0) {
+                stats.recordStepFire(currentStepIndex, stepScheduledAt, SystemClock.uptimeMillis());
+            }
+            long budget = op.getWatchdogBudget();
+            executionHandler.removeCallbacks(stepWatchdog);
+            if (budget > 0) {
+                postForRun(stepWatchdog, SystemClock.uptimeMillis() + budget);
+            }
 
-            switch (step.getType()) {
+            switch (op.getCode()) {
                 case TAP:
-                    handleTap(step);
+                    if (op.getTapCheck() != ExecutionPlan.TapCheck.NONE) {
+                        handleCheckedTap(op);
+                    } else {
+                        dispatchGesture(op);
+                    }
                     break;
                 case LONG_PRESS:
-                    handleLongPress(step);
-                    break;
                 case SWIPE:
-                    handleSwipe(step);
+                    dispatchGesture(op);
                     break;
                 case TEXT_SEARCH:
-                    handleTextSearch(step);
+                    handleTextSearch(op);
                     break;
                 case SYSTEM_KEY:
-                    handleSystemKey(step);
+                    handleSystemKey(op);
                     break;
                 case DELAY:
-                    handleDelay(step);
+                    handleDelay(op);
                     break;
                 case INPUT_TEXT:
-                    handleInputText(step);
+                    handleInputText(op);
+                    break;
+                case BURST:
+                    burstController.start(op.getX(), op.getY(), op.getRate(), op.getDuration(), burstListener);
+                    break;
+                case WAIT_FOR_ELEMENT:
+                    pendingWait = service.getWaiterRegistry().register(
+                            op.getText(), op.getDuration(), executionHandler, waitListener);
+                    break;
+                case LOOP_BEGIN:
+                case BRANCH:
+                    executeControl(op);
                     break;
                 default:
-                    Log.w(TAG, "Unsupported step type: " + step.getType());
-                    onStepComplete(step, false);
+                    Log.w(TAG, op.getError() != null ? op.getError()
+                            : "Unsupported step type: " + op.getStep().getType());
+                    onStepComplete(op, false);
                     break;
             }
         } catch (Exception e) {
             Log.e(TAG, "Error executing step: " + e.getMessage());
-            onStepComplete(step, false);
+            onStepComplete(op, false);
         }
     }
 
     /**
-     * Handle tap gesture
+     * Interpret a control instruction: loop entry and back-edge, conditional
+     * branch, or unconditional jump
      */
-    private void handleTap(Step step) {
-        try {
-            JSONObject data = new JSONObject(step.getActionData());
-            float x = (float) data.getDouble("x");
-            float y = (float) data.getDouble("y");
+    private void executeControl(ExecutionPlan.Op op) {
+        switch (op.getCode()) {
+            case LOOP_BEGIN:
+                loopCounters[op.getCounter()] = op.getCount();
+                completeStep(op, true, op.getCount() > 0 ? currentStepIndex + 1 : op.getTarget());
+                break;
+            case LOOP_END:
+                if (--loopCounters[op.getCounter()] > 0) {
+                    jumpTo(op.getTarget());
+                } else {
+                    jumpTo(currentStepIndex + 1);
+                }
+                break;
+            case BRANCH:
+                // In flight until the condition is evaluated, so a suspend waits for it
+                stepInFlight = true;
+                if (op.checksScreenChange()) {
+                    int index = currentStepIndex;
+                    runStepQuery(() -> service.getScreenFingerprint().get(), (fingerprint, error) ->
+                            onConditionEvaluated(op, error == null ? screenChanged(op, index, fingerprint) : null, error));
+                } else {
+                    runStepQuery(() -> matchesCondition(op), (taken, error) -> onConditionEvaluated(op, taken, error));
+                }
+                break;
+            case JUMP:
+                jumpTo(op.getTarget());
+                break;
+            default:
+                onStepComplete(op, false);
+                break;
+        }
+    }
 
-            Path path = new Path();
-            path.moveTo(x, y);
+    /**
+     * Take the branch a CONDITION's evaluation chose, or fail it
+     */
+    private void onConditionEvaluated(ExecutionPlan.Op op, @Nullable Boolean taken, @Nullable Exception error) {
+        if (error != null || taken == null) {
+            Log.e(TAG, "Error evaluating condition: " + (error != null ? error.getMessage() : "no result"));
+            onStepComplete(op, false);
+        } else {
+            completeStep(op, true, taken ? currentStepIndex + 1 : op.getTarget());
+        }
+    }
 
-            GestureDescription.Builder builder = new GestureDescription.Builder();
-            builder.addStroke(new GestureDescription.StrokeDescription(
-                    path, 0, Constants.Defaults.DEFAULT_TAP_DURATION));
+    /**
+     * Whether the screen changed since the CONDITION at {@code index} last
+     * ran (always true the first time), optionally negated. Records the new
+     * fingerprint (execution thread).
+     */
+    private boolean screenChanged(ExecutionPlan.Op op, int index, long fingerprint) {
+        long last = screenMarks[index];
+        screenMarks[index] = fingerprint;
+        return (last == 0 || last != fingerprint) != op.isNegated();
+    }
 
-            service.dispatchGesture(builder.build(), new AccessibilityService.GestureResultCallback() {
-                @Override
-                public void onCompleted(GestureDescription gestureDescription) {
-                    onStepComplete(step, true);
-                }
+    /**
+     * Whether a CONDITION's selector or text query matches a node in its
+     * windows, optionally negated (query pool)
+     */
+    private boolean matchesCondition(ExecutionPlan.Op op) {
+        NodeSelector selector = op.getSelector();
+        NodeTextIndex.Query query = op.getQuery();
+        SnapshotCache.Lookup lookup = selector != null ? selector::find : snapshot -> snapshot.find(query);
+        boolean found = service.getSnapshotCache().contains(lookup, op.getWindowTarget());
+        return found != op.isNegated();
+    }
 
-                @Override
-                public void onCancelled(GestureDescription gestureDescription) {
-                    onStepComplete(step, false);
-                }
-            }, null);
+    /**
+     * Move to another op without reporting anything (synthetic ops)
+     */
+    private void jumpTo(int index) {
+        currentStepIndex = index;
+        executeNextStep();
+    }
+
+    /**
+     * Dispatch the prebuilt gesture of a tap, long press or swipe op, or the
+     * fused gesture of the coalesced run it leads
+     */
+    private void dispatchGesture(ExecutionPlan.Op op) {
+        awaitingGesture = true;
+        try {
+            boolean dispatched = service.dispatchGesture(gestureOf(op), gestureCallback, executionHandler);
+            if (!dispatched) {
+                Log.e(TAG, "Gesture dispatch rejected for step: " + op.getStep().getSummary());
+                onGestureComplete(false);
+            }
         } catch (Exception e) {
-            Log.e(TAG, "Error performing tap: " + e.getMessage());
-            onStepComplete(step, false);
+            Log.e(TAG, "Error performing gesture: " + e.getMessage());
+            onGestureComplete(false);
         }
     }
 
     /**
-     * Handle long press gesture
+     * Resolve a TAP's point to the clickable node under it before tapping.
+     * A validated tap without a node fails; a node click performs the click
+     * on the node itself, falling back to the gesture when there is none.
      */
-    private void handleLongPress(Step step) {
-        try {
-            JSONObject data = new JSONObject(step.getActionData());
-            float x = (float) data.getDouble("x");
-            float y = (float) data.getDouble("y");
-            long duration = data.optLong("duration", Constants.Defaults.DEFAULT_LONG_PRESS_DURATION);
+    private void handleCheckedTap(ExecutionPlan.Op op) {
+        ExecutionStats runStats = stats;
+        runStepQuery(() -> checkTap(op, runStats), (result, error) -> {
+            if (error != null) {
+                Log.e(TAG, "Error checking tap: " + error.getMessage());
+                onStepComplete(op, false);
+            } else if (result == null) {
+                dispatchGesture(op);
+            } else {
+                onStepComplete(op, result);
+            }
+        });
+    }
 
-            Path path = new Path();
-            path.moveTo(x, y);
+    /**
+     * Hit-test a checked tap and click the node if asked to (query pool)
+     *
+     * @return the step result, or null if the gesture should be dispatched
+     */
+    @Nullable
+    private Boolean checkTap(ExecutionPlan.Op op, ExecutionStats runStats) {
+        SnapshotCache snapshots = service.getSnapshotCache();
+        NodeSnapshot snapshot = snapshots.get();
+        int hit = snapshot != null ? snapshot.getClickableGrid().hitTest(op.getX(), op.getY()) : -1;
+        runStats.recordHitTest(hit >= 0);
+        if (hit < 0) {
+            if (op.getTapCheck() == ExecutionPlan.TapCheck.VALIDATE) {
+                Log.w(TAG, String.format("Nothing clickable at (%.0f, %.0f), skipping tap", op.getX(), op.getY()));
+                return false;
+            }
+            return null;
+        }
+        if (op.getTapCheck() == ExecutionPlan.TapCheck.NODE_CLICK) {
+            AccessibilityNodeInfo node = snapshots.acquire(snapshot, hit);
+            if (node != null) {
+                boolean success = node.performAction(AccessibilityNodeInfo.ACTION_CLICK);
+                node.recycle();
+                invalidateSnapshot();
+                return success;
+            }
+        }
+        return null;
+    }
 
-            GestureDescription.Builder builder = new GestureDescription.Builder();
-            builder.addStroke(new GestureDescription.StrokeDescription(
-                    path, 0, duration));
+    /**
+     * Accept a gesture callback only for the gesture currently awaited; a
+     * late result for a gesture the watchdog already gave up on is dropped
+     */
+    private void onGestureResult(GestureDescription gesture, boolean success) {
+        if (!awaitingGesture || currentOp == null || gesture != gestureOf(currentOp)) {
+            Log.w(TAG, "Ignoring stale gesture result");
+            return;
+        }
+        onGestureComplete(success);
+    }
 
-            service.dispatchGesture(builder.build(), new AccessibilityService.GestureResultCallback() {
-                @Override
-                public void onCompleted(GestureDescription gestureDescription) {
-                    onStepComplete(step, true);
+    /**
+     * The in-flight op outlived its watchdog budget: abandon it, then dispatch
+     * it again or fail it so the run keeps going
+     */
+    private void onStepStalled() {
+        ExecutionPlan.Op op = currentOp;
+        if (!isRunning.get() || op == null || !stepInFlight) {
+            return;
+        }
+        boolean retry = stallRetries < op.getWatchdogRetries();
+        stats.recordStall(retry);
+        Log.w(TAG, "Step stalled after " + op.getWatchdogBudget() + "ms"
+                + (retry ? ", retrying: " : ", failing: ") + op.getStep().getSummary());
+        cancelStepQuery();
+
+        switch (op.getCode()) {
+            case BURST:
+                burstController.cancel();
+                break;
+            case WAIT_FOR_ELEMENT:
+                if (pendingWait != null) {
+                    pendingWait.cancel();
+                    pendingWait = null;
                 }
+                break;
+            case DELAY:
+                executionHandler.removeCallbacks(completeCurrentStep);
+                break;
+            default:
+                break;
+        }
 
-                @Override
-                public void onCancelled(GestureDescription gestureDescription) {
-                    onStepComplete(step, false);
-                }
-            }, null);
-        } catch (Exception e) {
-            Log.e(TAG, "Error performing long press: " + e.getMessage());
-            onStepComplete(step, false);
+        if (retry) {
+            stallRetries++;
+            awaitingGesture = false;
+            splitBatch(op);
+            executeStep(op);
+        } else if (awaitingGesture) {
+            onGestureComplete(false);
+        } else {
+            onStepComplete(op, false);
         }
     }
 
     /**
-     * Handle swipe gesture
+     * Handle a gesture result. A fused gesture completes or is cancelled as a
+     * whole, so every step it covers gets the same result. A retried one is
+     * split instead: strokes of a cancelled gesture may already have been
+     * injected, so only the lead's own stroke is dispatched again.
      */
-    private void handleSwipe(Step step) {
-        try {
-            JSONObject data = new JSONObject(step.getActionData());
-            float startX = (float) data.getDouble("startX");
-            float startY = (float) data.getDouble("startY");
-            float endX = (float) data.getDouble("endX");
-            float endY = (float) data.getDouble("endY");
-            long duration = data.optLong("duration", Constants.Defaults.DEFAULT_SWIPE_DURATION);
-
-            Path path = new Path();
-            path.moveTo(startX, startY);
-            path.lineTo(endX, endY);
-
-            GestureDescription.Builder builder = new GestureDescription.Builder();
-            builder.addStroke(new GestureDescription.StrokeDescription(
-                    path, 0, duration));
-
-            service.dispatchGesture(builder.build(), new AccessibilityService.GestureResultCallback() {
-                @Override
-                public void onCompleted(GestureDescription gestureDescription) {
-                    onStepComplete(step, true);
-                }
+    private void onGestureComplete(boolean success) {
+        awaitingGesture = false;
+        invalidateSnapshot();
+        ExecutionPlan.Op op = currentOp;
+        if (!success && scheduleRetry(op)) {
+            splitBatch(op);
+            return;
+        }
+        int batchSize = isSplit() ? 1 : op.getBatchSize();
+        if (batchSize <= 1) {
+            onStepComplete(op, success);
+            return;
+        }
 
-                @Override
-                public void onCancelled(GestureDescription gestureDescription) {
-                    onStepComplete(step, false);
-                }
-            }, null);
-        } catch (Exception e) {
-            Log.e(TAG, "Error performing swipe: " + e.getMessage());
-            onStepComplete(step, false);
+        for (int k = 0; k < batchSize; k++) {
+            Step member = plan.get(currentStepIndex).getStep();
+            if (k > 0) {
+                notifyStepStarted(member);
+            }
+            recordResult(success);
+            notifyStepCompleted(member, success);
+            currentStepIndex++;
         }
+        executeNextStep();
     }
 
     /**
-     * Handle text search and click
+     * Whether the current op belongs to a fused gesture that was split
      */
-    private void handleTextSearch(Step step) {
-        try {
-            JSONObject data = new JSONObject(step.getActionData());
-            String searchText = data.getString("text");
-            boolean clickAfterFound = data.optBoolean("click", true);
-
-            AccessibilityNodeInfo root = service.getRootInActiveWindow();
-            if (root == null) {
-                Log.e(TAG, "No active window");
-                onStepComplete(step, false);
-                return;
-            }
+    private boolean isSplit() {
+        return currentStepIndex >= splitFrom && currentStepIndex < splitUntil;
+    }
 
-            AccessibilityNodeInfo node = AccessibilityUtils.findNodeByText(root, searchText);
-            if (node != null) {
-                if (clickAfterFound) {
-                    boolean clicked = node.performAction(AccessibilityNodeInfo.ACTION_CLICK);
-                    onStepComplete(step, clicked);
-                } else {
-                    onStepComplete(step, true);
+    /**
+     * Gesture to dispatch for an op at the current index
+     */
+    private GestureDescription gestureOf(ExecutionPlan.Op op) {
+        return isSplit() ? op.getGesture() : op.getDispatchGesture();
+    }
+
+    /**
+     * Run the steps of a fused gesture about to be dispatched again one
+     * stroke at a time, each under its own recovery settings
+     */
+    private void splitBatch(ExecutionPlan.Op op) {
+        if (op.getBatchSize() > 1 && !isSplit()) {
+            splitFrom = currentStepIndex;
+            splitUntil = currentStepIndex + op.getBatchSize();
+            Log.i(TAG, "Splitting fused gesture of " + op.getBatchSize() + " steps for retry");
+        }
+    }
+
+    /**
+     * Record a finished burst and move on
+     */
+    private void onBurstFinished(@NonNull BurstController.Result result) {
+        stats.recordBurst(result);
+        invalidateSnapshot();
+        onStepComplete(currentOp, result.isSuccessful());
+    }
+
+    /**
+     * Handle text search and click. The lookup and the click run on the query pool.
+     */
+    private void handleTextSearch(ExecutionPlan.Op op) {
+        AccessibilityNodeInfo prefetched = takePrefetched(op);
+        ExecutionStats runStats = stats;
+        runStepQuery(() -> {
+            AccessibilityNodeInfo node = findTarget(op, prefetched, runStats);
+            if (node == null) {
+                return false;
+            }
+            try {
+                if (!op.shouldClick()) {
+                    return true;
                 }
+                boolean clicked = node.performAction(AccessibilityNodeInfo.ACTION_CLICK);
+                invalidateSnapshot();
+                return clicked;
+            } finally {
                 node.recycle();
-            } else {
-                onStepComplete(step, false);
             }
-            root.recycle();
-        } catch (Exception e) {
-            Log.e(TAG, "Error performing text search: " + e.getMessage());
-            onStepComplete(step, false);
-        }
+        }, (success, error) -> {
+            if (error != null) {
+                Log.e(TAG, "Error performing text search: " + error.getMessage());
+            }
+            onStepComplete(op, success != null && success);
+        });
     }
 
     /**
      * Handle system key actions
      */
-    private void handleSystemKey(Step step) {
+    private void handleSystemKey(ExecutionPlan.Op op) {
         try {
-            JSONObject data = new JSONObject(step.getActionData());
-            int action = data.getInt("action");
-            boolean success = service.performGlobalAction(action);
-            onStepComplete(step, success);
+            boolean success = service.performGlobalAction(op.getAction());
+            invalidateSnapshot();
+            onStepComplete(op, success);
         } catch (Exception e) {
             Log.e(TAG, "Error performing system action: " + e.getMessage());
-            onStepComplete(step, false);
+            onStepComplete(op, false);
         }
     }
 
     /**
      * Handle delay step
      */
-    private void handleDelay(Step step) {
-        try {
-            JSONObject data = new JSONObject(step.getActionData());
-            long delay = data.optLong("delay", Constants.Defaults.DEFAULT_DELAY);
-            mainHandler.postDelayed(() -> onStepComplete(step, true), delay);
-        } catch (Exception e) {
-            Log.e(TAG, "Error handling delay: " + e.getMessage());
-            onStepComplete(step, false);
+    private void handleDelay(ExecutionPlan.Op op) {
+        long end = schedulingMode == SchedulingMode.ABSOLUTE
+                ? stepScheduledAt + op.getDuration()
+                : SystemClock.uptimeMillis() + op.getDuration();
+        postForRun(completeCurrentStep, end);
+
+        // Use the idle time to find the next step's target
+        int next = currentStepIndex + 1;
+        if (next < plan.size() && NodePrefetcher.supports(plan.get(next))) {
+            scheduleSpeculation(plan.get(next), end + plan.get(next).getDelay());
         }
     }
 
     /**
-     * Handle text input
+     * The executor acted on the screen. Its window events may still be
+     * batched, so the snapshot is dropped without waiting for them.
      */
-    private void handleInputText(Step step) {
-        try {
-            JSONObject data = new JSONObject(step.getActionData());
-            String text = data.getString("text");
-            
-            AccessibilityNodeInfo root = service.getRootInActiveWindow();
-            if (root == null) {
-                Log.e(TAG, "No active window");
-                onStepComplete(step, false);
+    private void invalidateSnapshot() {
+        service.getSnapshotCache().invalidate();
+    }
+
+    /**
+     * Look up an upcoming op's target shortly before it fires. Looking up
+     * late keeps the node as fresh as possible; it is validated again on use.
+     */
+    private void scheduleSpeculation(ExecutionPlan.Op op, long fireAt) {
+        cancelSpeculation();
+        speculativeOp = op;
+        postForRun(speculativeLookup, Math.max(SystemClock.uptimeMillis(), fireAt - Constants.Limits.SPECULATIVE_LOOKUP_LEAD));
+    }
+
+    private void onSpeculativeLookup() {
+        ExecutionPlan.Op op = speculativeOp;
+        speculativeOp = null;
+        if (op == null || !isRunning.get()) {
+            return;
+        }
+        prefetcher.clear();
+        speculativeQuery = queryPool.submit(() -> prefetcher.resolve(op), (node, error) -> {
+            speculativeQuery = null;
+            if (error != null) {
+                Log.e(TAG, "Error in speculative lookup: " + error.getMessage());
                 return;
             }
+            prefetcher.offer(op, node);
+        }, AccessibilityNodeInfo::recycle);
+    }
+
+    private void cancelSpeculation() {
+        executionHandler.removeCallbacks(speculativeLookup);
+        speculativeOp = null;
+        if (speculativeQuery != null) {
+            speculativeQuery.cancel();
+            speculativeQuery = null;
+        }
+        prefetcher.clear();
+    }
+
+    /**
+     * Run the in-flight op's node work on the query pool and hand its outcome
+     * back to the state machine on the execution thread. Only one step query
+     * is outstanding; a stalled, retried or stopped step's result is dropped.
+     */
+    private <T> void runStepQuery(@NonNull NodeQueryPool.Query<T> query,
+                                  @NonNull NodeQueryPool.Callback<T> onResult) {
+        cancelStepQuery();
+        stepQuery = queryPool.submit(query, (result, error) -> {
+            stepQuery = null;
+            onResult.onResult(result, error);
+        });
+    }
+
+    private void cancelStepQuery() {
+        if (stepQuery != null) {
+            stepQuery.cancel();
+            stepQuery = null;
+        }
+    }
+
+    /**
+     * Take the node the speculative lookup found for an op, or drop a lookup
+     * made for another op (execution thread)
+     */
+    @Nullable
+    private AccessibilityNodeInfo takePrefetched(ExecutionPlan.Op op) {
+        if (prefetcher.isPrefetched(op)) {
+            AccessibilityNodeInfo node = prefetcher.take(op);
+            if (node == null) {
+                stats.recordPrefetch(false);
+            }
+            return node;
+        }
+        cancelSpeculation();
+        return null;
+    }
+
+    /**
+     * Find the target node of a TEXT_SEARCH or INPUT_TEXT op, using the
+     * prefetched node when it is still valid (query pool)
+     */
+    @Nullable
+    private AccessibilityNodeInfo findTarget(ExecutionPlan.Op op, @Nullable AccessibilityNodeInfo prefetched,
+                                             ExecutionStats runStats) {
+        if (prefetched != null) {
+            boolean valid = NodePrefetcher.isStillValid(op, prefetched);
+            runStats.recordPrefetch(valid);
+            if (valid) {
+                return prefetched;
+            }
+            prefetched.recycle();
+        }
+        return prefetcher.resolve(op);
+    }
 
-            AccessibilityNodeInfo focusedNode = root.findFocus(AccessibilityNodeInfo.FOCUS_INPUT);
-            if (focusedNode != null) {
+    /**
+     * Handle text input. The lookup and the input run on the query pool.
+     */
+    private void handleInputText(ExecutionPlan.Op op) {
+        AccessibilityNodeInfo prefetched = takePrefetched(op);
+        ExecutionStats runStats = stats;
+        runStepQuery(() -> {
+            AccessibilityNodeInfo focusedNode = findTarget(op, prefetched, runStats);
+            if (focusedNode == null) {
+                return false;
+            }
+            try {
                 Bundle arguments = new Bundle();
-                arguments.putCharSequence(AccessibilityNodeInfo.ACTION_ARGUMENT_SET_TEXT_CHARSEQUENCE, text);
+                arguments.putCharSequence(AccessibilityNodeInfo.ACTION_ARGUMENT_SET_TEXT_CHARSEQUENCE, op.getText());
                 boolean success = focusedNode.performAction(AccessibilityNodeInfo.ACTION_SET_TEXT, arguments);
+                invalidateSnapshot();
+                return success;
+            } finally {
                 focusedNode.recycle();
-                onStepComplete(step, success);
-            } else {
-                onStepComplete(step, false);
             }
-            root.recycle();
-        } catch (Exception e) {
-            Log.e(TAG, "Error inputting text: " + e.getMessage());
-            onStepComplete(step, false);
-        }
+        }, (success, error) -> {
+            if (error != null) {
+                Log.e(TAG, "Error inputting text: " + error.getMessage());
+            }
+            onStepComplete(op, success != null && success);
+        });
     }
 
     /**
      * Handle step completion
      */
-    private void onStepComplete(Step step, boolean success) {
+    private void onStepComplete(ExecutionPlan.Op op, boolean success) {
+        if (!success && scheduleRetry(op)) {
+            return;
+        }
+        completeStep(op, success, currentStepIndex + 1);
+    }
+
+    /**
+     * Run a failed op again after its retry policy's backoff, if the policy
+     * allows another attempt. The wait is a posted callback, so the execution
+     * thread stays free meanwhile.
+     */
+    private boolean scheduleRetry(ExecutionPlan.Op op) {
+        switch (op.getCode()) {
+            case UNSUPPORTED:
+            case LOOP_BEGIN:
+            case LOOP_END:
+            case BRANCH:
+            case JUMP:
+                return false;
+            default:
+                break;
+        }
+        RetryPolicy policy = op.getRetryPolicy() != null ? op.getRetryPolicy() : taskRetryPolicy;
+        if (!isRunning.get() || !policy.allowsRetry(retryAttempt)) {
+            return false;
+        }
+
+        retryAttempt++;
+        long delay = policy.getDelay(retryAttempt);
+        stats.recordRetry();
+        Log.i(TAG, "Retrying step (" + retryAttempt + "/" + policy.getMaxRetries() + ") in "
+                + delay + "ms: " + op.getStep().getSummary());
+        executionHandler.removeCallbacks(stepWatchdog);
+        postForRun(retryCurrentStep, SystemClock.uptimeMillis() + delay);
+        return true;
+    }
+
+    /**
+     * Report a finished step and continue at the given op index
+     */
+    private void completeStep(ExecutionPlan.Op op, boolean success, int nextIndex) {
+        recordResult(success);
+        notifyStepCompleted(op.getStep(), success);
+        currentStepIndex = nextIndex;
+        executeNextStep();
+    }
+
+    private void recordResult(boolean success) {
+        if (retryAttempt > 0) {
+            stats.recordRetriedStep(success);
+        }
         if (success) {
             successfulSteps.incrementAndGet();
+        } else {
+            failedSteps.incrementAndGet();
         }
-        
-        notifyStepCompleted(step, success);
-        currentStepIndex++;
-        executeNextStep();
     }
 
     /**
@@ -409,9 +1223,16 @@ public class TaskExecutor {
             currentRepeatCount++;
             currentStepIndex = 0;
             long repeatDelay = currentTask.getRepeatDelay();
-            
-            if (repeatDelay > 0) {
-                mainHandler.postDelayed(this::executeNextStep, repeatDelay);
+
+            if (schedulingMode == SchedulingMode.ABSOLUTE) {
+                timelineCursor += repeatDelay;
+                if (timelineCursor > SystemClock.uptimeMillis()) {
+                    postForRun(advanceRunnable, timelineCursor);
+                } else {
+                    executeNextStep();
+                }
+            } else if (repeatDelay > 0) {
+                postForRun(advanceRunnable, SystemClock.uptimeMillis() + repeatDelay);
             } else {
                 executeNextStep();
             }
@@ -426,8 +1247,11 @@ public class TaskExecutor {
     private void completeExecution() {
         isRunning.set(false);
         isPaused.set(false);
+        service.getEventSubscription().onRunFinished();
+        finishStats();
 
-        boolean success = successfulSteps.get() == getTotalRequiredSteps();
+        boolean success = failedSteps.get() == 0 && successfulSteps.get() > 0;
+        journal.finish(currentTask.getId());
         currentTask.recordExecution(success);
         
         // Save execution result
@@ -440,28 +1264,70 @@ public class TaskExecutor {
         });
 
         notifyExecutionCompleted(success);
+        if (runListener != null) {
+            runListener.onRunFinished(currentTask, success);
+        }
     }
 
     /**
-     * Get total number of required successful steps
+     * Read the execution options for a new run from preferences
      */
-    private int getTotalRequiredSteps() {
-        int enabledSteps = 0;
-        for (Step step : steps) {
-            if (step.isEnabled()) {
-                enabledSteps++;
-            }
+    private void loadRunOptions() {
+        PreferenceManager preferences = application.getPreferenceManager();
+        if (preferences == null) {
+            schedulingMode = SchedulingMode.RELATIVE;
+            coalesceGestures = false;
+            waitForIdle = false;
+            idleWindow = Constants.Defaults.IDLE_WINDOW;
+            return;
+        }
+        schedulingMode = preferences.isDriftFreeSchedulingEnabled()
+                ? SchedulingMode.ABSOLUTE : SchedulingMode.RELATIVE;
+        coalesceGestures = preferences.isGestureCoalescingEnabled();
+        waitForIdle = preferences.isWaitForIdleEnabled();
+        idleWindow = preferences.getIdleWindow();
+    }
+
+    /**
+     * Freeze the current run's stats as the last run result
+     */
+    private void finishStats() {
+        if (stats != null) {
+            stats.setPlannedEnd(timelineCursor, schedulingMode == SchedulingMode.ABSOLUTE);
+            stats.finish(SystemClock.uptimeMillis());
+            lastRunStats = stats;
+            Log.i(TAG, "Run stats: " + stats);
+            Log.i(TAG, "Node queries: " + service.getNodeRetriever());
+            Log.i(TAG, "Location memo: " + locationMemo);
         }
-        return enabledSteps * currentTask.getRepeatCount();
+    }
+
+    /**
+     * Post a timestamped probe to the main looper so the queueing delay steps
+     * would have seen there can be compared against the execution thread.
+     * Only one probe is in flight at a time.
+     */
+    private void probeMainThread() {
+        if (mainProbePending.compareAndSet(false, true)) {
+            mainProbePostedAt = SystemClock.uptimeMillis();
+            mainHandler.post(mainThreadProbe);
+        }
+    }
+
+    private void onMainThreadProbe() {
+        ExecutionStats current = stats;
+        if (current != null) {
+            current.recordMainThreadLag(SystemClock.uptimeMillis() - mainProbePostedAt);
+        }
+        mainProbePending.set(false);
     }
 
     /**
      * Pause task execution
      */
     public void pauseExecution() {
-        if (isRunning.get() && !isPaused.get()) {
-            isPaused.set(true);
-            notifyExecutionPaused();
+        if (isRunning.get() && isPaused.compareAndSet(false, true)) {
+            executionHandler.postAtTime(this::notifyExecutionPaused, runToken, SystemClock.uptimeMillis());
         }
     }
 
@@ -469,10 +1335,13 @@ public class TaskExecutor {
      * Resume task execution
      */
     public void resumeExecution() {
-        if (isRunning.get() && isPaused.get()) {
-            isPaused.set(false);
-            notifyExecutionResumed();
-            executeNextStep();
+        if (isRunning.get() && isPaused.compareAndSet(true, false)) {
+            executionHandler.postAtTime(() -> {
+                notifyExecutionResumed();
+                // Time spent paused is not schedule drift; restart the timeline from now
+                timelineCursor = Math.max(timelineCursor, SystemClock.uptimeMillis());
+                executeNextStep();
+            }, runToken, SystemClock.uptimeMillis());
         }
     }
 
@@ -480,59 +1349,132 @@ public class TaskExecutor {
      * Stop task execution
      */
     public void stopExecution() {
+        stop(false);
+    }
+
+    /**
+     * Stop task execution without ending the run in the journal, so it can be
+     * resumed from its last checkpoint later (service interrupted or destroyed)
+     */
+    public void interruptExecution() {
+        stop(true);
+    }
+
+    private void stop(boolean resumable) {
+        final RunToken token = runToken;
         isRunning.set(false);
         isPaused.set(false);
-        mainHandler.removeCallbacksAndMessages(null);
-        notifyExecutionCompleted(false);
+        if (token == null) {
+            return; // Nothing ever ran
+        }
+        // Only this run's callbacks; a run started meanwhile keeps its own
+        executionHandler.removeCallbacksAndMessages(token);
+        executionHandler.post(() -> {
+            if (token != activeRun) {
+                return; // A newer run already started and cleared what this one left
+            }
+            cancelRunWork();
+            service.getEventSubscription().onRunFinished();
+            finishStats();
+            Task task = token.task;
+            if (resumable) {
+                journal.flushNow();
+            } else {
+                journal.finish(task.getId());
+            }
+            notifyExecutionCompleted(false);
+            if (runListener != null) {
+                runListener.onRunFinished(task, false);
+            }
+        });
+    }
+
+    /**
+     * Abandon whatever the loaded run has in flight (execution thread)
+     */
+    private void cancelRunWork() {
+        stepInFlight = false;
+        suspendRequested = false;
+        awaitingGesture = false;
+        splitFrom = 0;
+        splitUntil = 0;
+        cancelStepQuery();
+        cancelSpeculation();
+        burstController.cancel();
+        if (settleWait != null) {
+            settleWait.cancel();
+            settleWait = null;
+        }
+        if (pendingWait != null) {
+            pendingWait.cancel();
+            pendingWait = null;
+        }
     }
 
-    // Notification methods
+    /**
+     * Stop any run and shut down the execution thread. The executor cannot be
+     * used afterwards.
+     */
+    public void release() {
+        if (isRunning.get()) {
+            interruptExecution();
+        }
+        // Queued behind the interrupted run's cleanup, so its final flush
+        // reaches the journal before it is closed
+        Runnable shutdown = () -> {
+            queryPool.shutdown();
+            journal.close();
+        };
+        if (!executionHandler.post(shutdown)) {
+            shutdown.run();
+        }
+        executionThread.quitSafely();
+    }
+
+    // Notification methods. Events go through the ring and reach the
+    // callback on the main thread; only the execution thread publishes.
     private void notifyExecutionStarted() {
-        mainHandler.post(() -> {
-            callback.onExecutionStarted(currentTask);
-            NotificationUtils.showTaskNotification(application, currentTask, "Starting execution...", 0);
-        });
+        publish(ExecutionTrace.EventType.EXECUTION_STARTED, null, 0, true, null);
     }
 
     private void notifyStepStarted(Step step) {
-        mainHandler.post(() -> {
-            int progress = (currentStepIndex * 100) / steps.size();
-            callback.onStepStarted(step, currentStepIndex + 1, steps.size());
-            NotificationUtils.updateTaskProgress(application, currentTask, step.getSummary(), progress);
-        });
+        publish(ExecutionTrace.EventType.STEP_STARTED, step, currentStepIndex, true, null);
     }
 
     private void notifyStepCompleted(Step step, boolean success) {
-        mainHandler.post(() -> callback.onStepCompleted(step, success));
+        publish(ExecutionTrace.EventType.STEP_COMPLETED, step, currentStepIndex, success, null);
     }
 
     private void notifyExecutionPaused() {
-        mainHandler.post(() -> {
-            callback.onExecutionPaused(currentTask);
-            NotificationUtils.showTaskNotification(application, currentTask, "Execution paused", -1);
-        });
+        publish(ExecutionTrace.EventType.EXECUTION_PAUSED, null, currentStepIndex, true, null);
     }
 
     private void notifyExecutionResumed() {
-        mainHandler.post(() -> {
-            callback.onExecutionResumed(currentTask);
-            NotificationUtils.showTaskNotification(application, currentTask, "Execution resumed", -1);
-        });
+        publish(ExecutionTrace.EventType.EXECUTION_RESUMED, null, currentStepIndex, true, null);
     }
 
     private void notifyExecutionCompleted(boolean success) {
-        mainHandler.post(() -> {
-            callback.onExecutionCompleted(currentTask, success);
-            String message = success ? "Execution completed successfully" : "Execution failed";
-            NotificationUtils.showTaskNotification(application, currentTask, message, 100);
-        });
+        publish(ExecutionTrace.EventType.EXECUTION_COMPLETED, null, currentStepIndex, success, null);
     }
 
     private void notifyError(String error) {
-        mainHandler.post(() -> {
-            callback.onExecutionError(error);
-            NotificationUtils.showErrorNotification(application, error);
-        });
+        publish(ExecutionTrace.EventType.EXECUTION_ERROR, null, currentStepIndex, false, error);
+    }
+
+    private void publish(ExecutionTrace.EventType type, @Nullable Step step, int position,
+                         boolean success, @Nullable String message) {
+        ExecutionEventRing.Event event = eventRing.claim();
+        event.type = type;
+        event.task = currentTask;
+        event.step = step;
+        event.stats = stats;
+        event.position = position;
+        event.total = plan != null ? plan.size() : 0;
+        event.success = success;
+        event.message = message;
+        event.time = SystemClock.uptimeMillis();
+        eventRing.commit(event);
+        eventDispatcher.requestDrain();
     }
 
     /**
@@ -575,8 +1517,33 @@ public class TaskExecutor {
      * Get execution progress as percentage
      */
     public int getProgress() {
-        if (steps == null || steps.isEmpty()) return 0;
-        return (currentStepIndex * 100) / steps.size();
+        ExecutionPlan activePlan = plan;
+        if (activePlan == null || activePlan.isEmpty()) return 0;
+        return (currentStepIndex * 100) / activePlan.size();
+    }
+
+    /**
+     * Get the journal that run checkpoints are written to
+     */
+    @NonNull
+    public CheckpointJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Get timing statistics of the last finished run
+     */
+    @Nullable
+    public ExecutionStats getLastRunStats() {
+        return lastRunStats;
+    }
+
+    /**
+     * Get the remembered TEXT_SEARCH target locations and their per-step hit ratios
+     */
+    @NonNull
+    public LocationMemo getLocationMemo() {
+        return locationMemo;
     }
 
     /**
@@ -71,7 +71,8 @@ public class Step {
         // Advanced Actions
         SCREENSHOT(16, "Screenshot", "Take screenshot for verification"),
         WAIT_FOR_ELEMENT(17, "Wait for Element", "Wait until element appears"),
-        SCROLL(18, "Scroll", "Scroll in specified direction");
+        SCROLL(18, "Scroll", "Scroll in specified direction"),
+        BURST_TAP(19, "Burst Tap", "Sustained rapid tapping at a target rate");
 
         private final int id;
         private final String displayName;
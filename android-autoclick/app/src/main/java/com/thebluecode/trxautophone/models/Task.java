@@ -6,6 +6,8 @@ import androidx.room.TypeConverters;
 import androidx.room.ColumnInfo;
 import androidx.annotation.NonNull;
 
+import com.thebluecode.trxautophone.utils.Constants;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -58,6 +60,15 @@ public class Task {
     @ColumnInfo(name = "repeat_delay")
     private long repeatDelay;
 
+    @ColumnInfo(name = "retry_mode")
+    private String retryMode;
+
+    @ColumnInfo(name = "max_retries", defaultValue = "0")
+    private int maxRetries;
+
+    @ColumnInfo(name = "retry_delay", defaultValue = "1000")
+    private long retryDelay;
+
     /**
      * Task execution status
      */
@@ -90,6 +101,9 @@ public class Task {
         this.successCount = 0;
         this.repeatCount = 1;
         this.repeatDelay = 0;
+        this.retryMode = "NONE";
+        this.maxRetries = 0;
+        this.retryDelay = 1000;
         this.category = "General";
         this.tags = "";
     }
@@ -179,6 +193,22 @@ public class Task {
         updateTimestamp();
     }
 
+    // Retry setters leave updatedAt alone: Room calls them on every load
+    public String getRetryMode() { return retryMode != null ? retryMode : "NONE"; }
+    public void setRetryMode(String retryMode) { 
+        this.retryMode = retryMode != null ? retryMode.trim() : "NONE";
+    }
+
+    public int getMaxRetries() { return maxRetries; }
+    public void setMaxRetries(int maxRetries) { 
+        this.maxRetries = Math.max(0, Math.min(maxRetries, Constants.Limits.MAX_RETRIES));
+    }
+
+    public long getRetryDelay() { return retryDelay; }
+    public void setRetryDelay(long retryDelay) { 
+        this.retryDelay = Math.max(0, Math.min(retryDelay, Constants.Limits.MAX_RETRY_DELAY));
+    }
+
     // Helper methods
     private void updateTimestamp() {
         this.updatedAt = System.currentTimeMillis();
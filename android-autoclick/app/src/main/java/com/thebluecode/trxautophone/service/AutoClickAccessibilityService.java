@@ -1,21 +1,29 @@
 package com.thebluecode.trxautophone.service;
 
 import android.accessibilityservice.AccessibilityService;
-import android.accessibilityservice.AccessibilityServiceInfo;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
 
 import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
 
 import com.thebluecode.trxautophone.AutoClickApplication;
+import com.thebluecode.trxautophone.executor.CheckpointJournal;
+import com.thebluecode.trxautophone.executor.RunQueue;
 import com.thebluecode.trxautophone.executor.TaskExecutor;
 import com.thebluecode.trxautophone.models.Step;
 import com.thebluecode.trxautophone.models.Task;
 import com.thebluecode.trxautophone.utils.Constants;
 import com.thebluecode.trxautophone.utils.NotificationUtils;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Enhanced Accessibility Service with improved error handling and execution monitoring
  */
@@ -23,7 +31,42 @@ public class AutoClickAccessibilityService extends AccessibilityService {
     private static final String TAG = "AutoClickService";
     private static AutoClickAccessibilityService instance;
     private TaskExecutor taskExecutor;
+    private RunQueue runQueue;
+    private NodeWaiterRegistry waiterRegistry;
+    private final ScreenSettleDetector settleDetector = new ScreenSettleDetector();
+    private final NodeRetriever nodeRetriever = new NodeRetriever(this);
+    private final WindowTopology windowTopology = new WindowTopology(this);
+    private final SnapshotCache snapshotCache = new SnapshotCache(nodeRetriever, windowTopology);
+    private final ScreenFingerprint screenFingerprint = new ScreenFingerprint(snapshotCache);
+    private final EventSubscription eventSubscription = new EventSubscription(this);
     private boolean isInitialized = false;
+    // Interrupted runs found at startup, by task id
+    private final Map<Long, PendingResume> pendingResumes = new ConcurrentHashMap<>();
+
+    /**
+     * An interrupted run waiting for the user to resume or discard it
+     */
+    private static final class PendingResume {
+        final Task task;
+        final CheckpointJournal.Checkpoint checkpoint;
+
+        PendingResume(Task task, CheckpointJournal.Checkpoint checkpoint) {
+            this.task = task;
+            this.checkpoint = checkpoint;
+        }
+    }
+
+    private final BroadcastReceiver checkpointReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            long taskId = intent.getLongExtra("task_id", -1);
+            if (Constants.IntentActions.ACTION_RESUME_CHECKPOINT.equals(intent.getAction())) {
+                resumeFromCheckpoint(taskId);
+            } else if (Constants.IntentActions.ACTION_DISCARD_CHECKPOINT.equals(intent.getAction())) {
+                discardCheckpoint(taskId);
+            }
+        }
+    };
 
     @Override
     public void onCreate() {
@@ -38,6 +81,7 @@ public class AutoClickAccessibilityService extends AccessibilityService {
         
         try {
             configureService();
+            waiterRegistry = new NodeWaiterRegistry(this);
             initializeExecutor();
             isInitialized = true;
             NotificationUtils.showServiceNotification(
@@ -45,6 +89,7 @@ public class AutoClickAccessibilityService extends AccessibilityService {
                 "Service is running",
                 "Tap to open app"
             );
+            offerCheckpointResume();
             Log.i(TAG, "Service connected and initialized successfully");
         } catch (Exception e) {
             Log.e(TAG, "Error initializing service", e);
@@ -53,33 +98,42 @@ public class AutoClickAccessibilityService extends AccessibilityService {
     }
 
     /**
-     * Configure service capabilities
+     * Configure service capabilities. Starts with the idle event
+     * subscription; runs and waits widen it while they need screen events.
      */
     private void configureService() {
-        AccessibilityServiceInfo info = new AccessibilityServiceInfo();
-        
-        // Set flags for enhanced capabilities
-        info.flags = AccessibilityServiceInfo.FLAG_REPORT_VIEW_IDS |
-                    AccessibilityServiceInfo.FLAG_RETRIEVE_INTERACTIVE_WINDOWS |
-                    AccessibilityServiceInfo.FLAG_REQUEST_ENHANCED_WEB_ACCESSIBILITY |
-                    AccessibilityServiceInfo.FLAG_REQUEST_TOUCH_EXPLORATION_MODE;
-        
-        // Set feedback type
-        info.feedbackType = AccessibilityServiceInfo.FEEDBACK_GENERIC;
-        
-        // Set event types to monitor
-        info.eventTypes = AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED |
-                         AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED |
-                         AccessibilityEvent.TYPE_VIEW_CLICKED |
-                         AccessibilityEvent.TYPE_VIEW_FOCUSED;
-        
-        // Set notification timeout
-        info.notificationTimeout = 100;
-        
-        setServiceInfo(info);
+        eventSubscription.apply();
         Log.d(TAG, "Service configured with enhanced capabilities");
     }
 
+    /**
+     * Look for runs that were cut off by the service dying and offer to resume each
+     */
+    private void offerCheckpointResume() {
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Constants.IntentActions.ACTION_RESUME_CHECKPOINT);
+        filter.addAction(Constants.IntentActions.ACTION_DISCARD_CHECKPOINT);
+        ContextCompat.registerReceiver(this, checkpointReceiver, filter, ContextCompat.RECEIVER_NOT_EXPORTED);
+
+        AutoClickApplication application = (AutoClickApplication) getApplication();
+        CheckpointJournal journal = taskExecutor.getJournal();
+        application.executeAsync(() -> {
+            for (CheckpointJournal.Checkpoint checkpoint : journal.readUnfinished()) {
+                Task task = application.getDatabase().taskDao().getTaskById(checkpoint.getTaskId());
+                if (task == null) {
+                    journal.finish(checkpoint.getTaskId());
+                    continue;
+                }
+                pendingResumes.put(task.getId(), new PendingResume(task, checkpoint));
+                Log.i(TAG, String.format("Interrupted run found: %s at op %d, repeat %d",
+                    task.getName(), checkpoint.getStepIndex(), checkpoint.getRepeatCount()));
+                NotificationUtils.showResumeNotification(application, task,
+                    String.format("Interrupted at repeat %d/%d. Resume?",
+                        checkpoint.getRepeatCount(), task.getRepeatCount()));
+            }
+        });
+    }
+
     /**
      * Initialize task executor
      */
@@ -127,6 +181,7 @@ public class AutoClickAccessibilityService extends AccessibilityService {
                 }
             }
         );
+        runQueue = new RunQueue(taskExecutor);
     }
 
     @Override
@@ -147,6 +202,10 @@ public class AutoClickAccessibilityService extends AccessibilityService {
                     handleWindowContentChanged(event);
                     break;
                     
+                case AccessibilityEvent.TYPE_WINDOWS_CHANGED:
+                    handleWindowsChanged(event);
+                    break;
+
                 case AccessibilityEvent.TYPE_VIEW_CLICKED:
                     handleViewClicked(event);
                     break;
@@ -167,13 +226,30 @@ public class AutoClickAccessibilityService extends AccessibilityService {
         if (event.getPackageName() != null) {
             Log.d(TAG, "Window changed: " + event.getPackageName());
         }
+        windowTopology.notePackage(event.getWindowId(), event.getPackageName());
+        snapshotCache.invalidate();
+        screenFingerprint.invalidate();
+        settleDetector.onScreenEvent();
+        waiterRegistry.onWindowStateChanged(event);
     }
 
     /**
      * Handle window content changes
      */
     private void handleWindowContentChanged(AccessibilityEvent event) {
-        // Monitor content changes if needed
+        snapshotCache.invalidate();
+        screenFingerprint.onContentChanged(event);
+        settleDetector.onScreenEvent();
+        waiterRegistry.onWindowContentChanged(event);
+    }
+
+    /**
+     * Handle windows being added, removed, moved or re-layered
+     */
+    private void handleWindowsChanged(AccessibilityEvent event) {
+        windowTopology.invalidate();
+        snapshotCache.invalidate();
+        screenFingerprint.invalidate();
     }
 
     /**
@@ -187,44 +263,55 @@ public class AutoClickAccessibilityService extends AccessibilityService {
      * Handle view focus events
      */
     private void handleViewFocused(AccessibilityEvent event) {
-        // Monitor focus events if needed
+        // Input focus is part of the snapshot
+        snapshotCache.invalidate();
     }
 
     @Override
     public void onInterrupt() {
         Log.w(TAG, "Service interrupted");
+        if (runQueue != null) {
+            runQueue.clear();
+        }
         if (taskExecutor != null && taskExecutor.isRunning()) {
-            taskExecutor.stopExecution();
+            taskExecutor.interruptExecution();
         }
     }
 
     @Override
     public boolean onUnbind(Intent intent) {
         Log.i(TAG, "Service unbound");
+        if (waiterRegistry != null) {
+            waiterRegistry.cancelAll();
+        }
         instance = null;
         isInitialized = false;
         return super.onUnbind(intent);
     }
 
     /**
-     * Start executing a task
+     * Start executing a task, or queue it behind the running one
      */
     public void startTask(@NonNull Task task) {
+        startTask(task, RunQueue.Priority.NORMAL);
+    }
+
+    /**
+     * Submit a task run at the given priority. A higher priority than the
+     * running task suspends it until the new run has finished.
+     */
+    @NonNull
+    public RunQueue.SubmitResult startTask(@NonNull Task task, @NonNull RunQueue.Priority priority) {
         if (!isInitialized) {
             Log.e(TAG, "Cannot start task, service not initialized");
-            return;
-        }
-
-        if (taskExecutor.isRunning()) {
-            Log.w(TAG, "Cannot start task, another task is already running");
-            return;
+            return RunQueue.SubmitResult.REJECTED;
         }
 
-        taskExecutor.executeTask(task);
+        return runQueue.submit(task, priority);
     }
 
     /**
-     * Stop the current task
+     * Stop the current task; the next queued run starts in its place
      */
     public void stopTask() {
         if (taskExecutor != null && taskExecutor.isRunning()) {
@@ -232,6 +319,16 @@ public class AutoClickAccessibilityService extends AccessibilityService {
         }
     }
 
+    /**
+     * Drop all queued runs and stop the current task
+     */
+    public void stopAllTasks() {
+        if (runQueue != null) {
+            runQueue.clear();
+        }
+        stopTask();
+    }
+
     /**
      * Pause the current task
      */
@@ -278,6 +375,95 @@ public class AutoClickAccessibilityService extends AccessibilityService {
         return taskExecutor != null ? taskExecutor.getProgress() : 0;
     }
 
+    /**
+     * Resume a task's interrupted run found at startup from its last checkpoint
+     */
+    public boolean resumeFromCheckpoint(long taskId) {
+        if (!isInitialized) {
+            return false;
+        }
+        PendingResume pending = pendingResumes.remove(taskId);
+        if (pending == null) {
+            return false;
+        }
+        NotificationUtils.cancelResumeNotification(this, taskId);
+        return runQueue.submitFromCheckpoint(pending.task, pending.checkpoint, RunQueue.Priority.NORMAL)
+            != RunQueue.SubmitResult.REJECTED;
+    }
+
+    /**
+     * Drop a task's interrupted run found at startup. Other tasks' runs stay resumable.
+     */
+    public void discardCheckpoint(long taskId) {
+        NotificationUtils.cancelResumeNotification(this, taskId);
+        if (pendingResumes.remove(taskId) != null && taskExecutor != null) {
+            taskExecutor.getJournal().finish(taskId);
+        }
+    }
+
+    /**
+     * Check if any interrupted run is waiting to be resumed
+     */
+    public boolean hasPendingCheckpoint() {
+        return !pendingResumes.isEmpty();
+    }
+
+    /**
+     * Get the queue of runs waiting for the executor
+     */
+    public RunQueue getRunQueue() {
+        return runQueue;
+    }
+
+    /**
+     * Get the registry of pending element waits
+     */
+    public NodeWaiterRegistry getWaiterRegistry() {
+        return waiterRegistry;
+    }
+
+    /**
+     * Get the detector used to end step delays once the screen is quiet
+     */
+    public ScreenSettleDetector getSettleDetector() {
+        return settleDetector;
+    }
+
+    /**
+     * Get the subscription that scales event delivery to current demand
+     */
+    public EventSubscription getEventSubscription() {
+        return eventSubscription;
+    }
+
+    /**
+     * Get the retriever that fetches nodes and measures each query's cost
+     */
+    public NodeRetriever getNodeRetriever() {
+        return nodeRetriever;
+    }
+
+    /**
+     * Get the cached list of windows on screen
+     */
+    public WindowTopology getWindowTopology() {
+        return windowTopology;
+    }
+
+    /**
+     * Get the structural fingerprint of the active window
+     */
+    public ScreenFingerprint getScreenFingerprint() {
+        return screenFingerprint;
+    }
+
+    /**
+     * Get the cached snapshot of the active window's nodes
+     */
+    public SnapshotCache getSnapshotCache() {
+        return snapshotCache;
+    }
+
     /**
      * Get singleton instance
      */
@@ -332,8 +518,16 @@ public class AutoClickAccessibilityService extends AccessibilityService {
     @Override
     public void onDestroy() {
         Log.i(TAG, "Service being destroyed");
-        if (taskExecutor != null && taskExecutor.isRunning()) {
-            taskExecutor.stopExecution();
+        if (runQueue != null) {
+            runQueue.clear();
+        }
+        if (taskExecutor != null) {
+            taskExecutor.release();
+        }
+        try {
+            unregisterReceiver(checkpointReceiver);
+        } catch (IllegalArgumentException e) {
+            // Never registered; service failed to initialize
         }
         instance = null;
         isInitialized = false;
@@ -0,0 +1,212 @@
+package com.thebluecode.trxautophone.service;
+
+import androidx.annotation.NonNull;
+
+import com.thebluecode.trxautophone.utils.Constants;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the bounds of the clickable, visible nodes of a
+ * {@link NodeSnapshot}, for resolving screen coordinates to nodes.
+ *
+ * Each cell lists the clickable nodes overlapping it, so a hit test only
+ * looks at the handful of nodes in one cell, and a nearest-node query at the
+ * cells in growing rings around the point until no closer node can exist.
+ * Built once per snapshot, on first use.
+ */
+public final class ClickableGrid {
+    private final NodeSnapshot snapshot;
+    private final int originX;
+    private final int originY;
+    private final int cellSize;
+    private final int columns;
+    private final int rows;
+    // Clickable nodes per cell, ascending in pre-order (CSR layout)
+    private final int[] cellStart;
+    private final int[] cellNodes;
+    private final int clickableCount;
+
+    ClickableGrid(@NonNull NodeSnapshot snapshot) {
+        this(snapshot, Constants.Limits.HIT_GRID_CELL_SIZE);
+    }
+
+    ClickableGrid(@NonNull NodeSnapshot snapshot, int cellSize) {
+        this.snapshot = snapshot;
+        this.cellSize = Math.max(1, cellSize);
+
+        int size = snapshot.size();
+        int[] clickables = new int[size];
+        int count = 0;
+        int left = Integer.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE;
+        int bottom = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            if (!isTarget(i)) {
+                continue;
+            }
+            clickables[count++] = i;
+            left = Math.min(left, snapshot.getLeft(i));
+            top = Math.min(top, snapshot.getTop(i));
+            right = Math.max(right, snapshot.getRight(i));
+            bottom = Math.max(bottom, snapshot.getBottom(i));
+        }
+        clickableCount = count;
+        if (count == 0) {
+            originX = originY = 0;
+            columns = rows = 0;
+            cellStart = new int[1];
+            cellNodes = new int[0];
+            return;
+        }
+
+        originX = left;
+        originY = top;
+        columns = (right - left + this.cellSize - 1) / this.cellSize;
+        rows = (bottom - top + this.cellSize - 1) / this.cellSize;
+
+        // Count, prefix-sum, then fill: two passes over the clickables
+        cellStart = new int[columns * rows + 1];
+        for (int c = 0; c < count; c++) {
+            int i = clickables[c];
+            for (int row = rowOf(snapshot.getTop(i)); row <= rowOf(snapshot.getBottom(i) - 1); row++) {
+                for (int col = columnOf(snapshot.getLeft(i)); col <= columnOf(snapshot.getRight(i) - 1); col++) {
+                    cellStart[row * columns + col + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < columns * rows; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        cellNodes = new int[cellStart[columns * rows]];
+        int[] fill = Arrays.copyOf(cellStart, columns * rows);
+        for (int c = 0; c < count; c++) {
+            int i = clickables[c];
+            for (int row = rowOf(snapshot.getTop(i)); row <= rowOf(snapshot.getBottom(i) - 1); row++) {
+                for (int col = columnOf(snapshot.getLeft(i)); col <= columnOf(snapshot.getRight(i) - 1); col++) {
+                    cellNodes[fill[row * columns + col]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * The clickable node under the point, or -1. Of overlapping nodes the
+     * last in pre-order wins: it is the innermost, or drawn on top.
+     */
+    public int hitTest(float x, float y) {
+        int px = (int) x;
+        int py = (int) y;
+        int col = (px - originX) / cellSize;
+        int row = (py - originY) / cellSize;
+        if (px < originX || py < originY || col >= columns || row >= rows) {
+            return -1;
+        }
+        int cell = row * columns + col;
+        for (int n = cellStart[cell + 1] - 1; n >= cellStart[cell]; n--) {
+            int i = cellNodes[n];
+            if (contains(i, px, py)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The clickable node closest to the point, 0 distance if under it, or -1
+     * if there are none
+     */
+    public int findNearest(float x, float y) {
+        if (clickableCount == 0) {
+            return -1;
+        }
+        int px = (int) x;
+        int py = (int) y;
+        int col = clamp(Math.floorDiv(px - originX, cellSize), columns);
+        int row = clamp(Math.floorDiv(py - originY, cellSize), rows);
+
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        int maxRing = Math.max(columns, rows);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int r = row - ring; r <= row + ring; r++) {
+                if (r < 0 || r >= rows) continue;
+                boolean edgeRow = r == row - ring || r == row + ring;
+                int step = edgeRow ? 1 : Math.max(1, 2 * ring);
+                for (int c = col - ring; c <= col + ring; c += step) {
+                    if (c < 0 || c >= columns) continue;
+                    int cell = r * columns + c;
+                    for (int n = cellStart[cell]; n < cellStart[cell + 1]; n++) {
+                        int i = cellNodes[n];
+                        long distance = distanceSquared(i, px, py);
+                        if (distance < bestDistance || (distance == bestDistance && i > best)) {
+                            best = i;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+            }
+            // Cells beyond this ring are at least ring * cellSize away
+            long bound = (long) ring * cellSize;
+            if (best >= 0 && bestDistance <= bound * bound) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Every clickable, visible node, in pre-order
+     */
+    @NonNull
+    public int[] getClickables() {
+        int[] nodes = new int[clickableCount];
+        int n = 0;
+        for (int i = 0; i < snapshot.size() && n < nodes.length; i++) {
+            if (isTarget(i)) {
+                nodes[n++] = i;
+            }
+        }
+        return nodes;
+    }
+
+    public int getClickableCount() {
+        return clickableCount;
+    }
+
+    @NonNull
+    public NodeSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    private boolean isTarget(int i) {
+        return snapshot.hasFlag(i, NodeSnapshot.FLAG_CLICKABLE)
+                && snapshot.hasFlag(i, NodeSnapshot.FLAG_VISIBLE)
+                && snapshot.getRight(i) > snapshot.getLeft(i)
+                && snapshot.getBottom(i) > snapshot.getTop(i);
+    }
+
+    private boolean contains(int i, int x, int y) {
+        return x >= snapshot.getLeft(i) && x < snapshot.getRight(i)
+                && y >= snapshot.getTop(i) && y < snapshot.getBottom(i);
+    }
+
+    private long distanceSquared(int i, int x, int y) {
+        long dx = Math.max(0, Math.max(snapshot.getLeft(i) - x, x - (snapshot.getRight(i) - 1)));
+        long dy = Math.max(0, Math.max(snapshot.getTop(i) - y, y - (snapshot.getBottom(i) - 1)));
+        return dx * dx + dy * dy;
+    }
+
+    private int columnOf(int x) {
+        return clamp((x - originX) / cellSize, columns);
+    }
+
+    private int rowOf(int y) {
+        return clamp((y - originY) / cellSize, rows);
+    }
+
+    private static int clamp(int value, int count) {
+        return Math.max(0, Math.min(value, count - 1));
+    }
+}
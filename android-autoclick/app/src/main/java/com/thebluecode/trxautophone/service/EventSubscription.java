@@ -0,0 +1,141 @@
+package com.thebluecode.trxautophone.service;
+
+import android.accessibilityservice.AccessibilityServiceInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.accessibility.AccessibilityEvent;
+
+import androidx.annotation.NonNull;
+
+import com.thebluecode.trxautophone.utils.Constants;
+
+/**
+ * Keeps the service's event subscription as small as the current work allows.
+ *
+ * While idle the service only hears window state and window list changes,
+ * batched at a long timeout. Content and focus changes are subscribed to only
+ * while a run reads the screen, a settle wait needs them, or an element wait
+ * is pending. The
+ * notification timeout then follows how soon the run needs to learn about a
+ * change. Demand may change on any thread; the subscription is recomputed on
+ * the main thread and only pushed to the system when it actually differs.
+ */
+public class EventSubscription {
+    private static final String TAG = "EventSubscription";
+    private static final int IDLE_EVENTS = AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
+            | AccessibilityEvent.TYPE_WINDOWS_CHANGED;
+    private static final int SCREEN_EVENTS = IDLE_EVENTS
+            | AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED
+            | AccessibilityEvent.TYPE_VIEW_FOCUSED;
+
+    private final AutoClickAccessibilityService service;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable applyRunnable = this::apply;
+
+    // Latest demand (any thread)
+    private volatile boolean running;
+    private volatile long runLatency = -1;
+    private volatile boolean waiting;
+
+    // Last applied subscription (main thread)
+    private int appliedEvents = -1;
+    private long appliedTimeout = -1;
+
+    EventSubscription(@NonNull AutoClickAccessibilityService service) {
+        this.service = service;
+    }
+
+    /**
+     * A run started or resumed
+     *
+     * @param latency how soon, in ms, the run needs to learn about a screen
+     *                change, or -1 if it never reads the screen
+     */
+    public void onRunStarted(long latency) {
+        running = true;
+        runLatency = latency;
+        scheduleApply();
+    }
+
+    /**
+     * The run finished, stopped or was suspended
+     */
+    public void onRunFinished() {
+        running = false;
+        runLatency = -1;
+        scheduleApply();
+    }
+
+    /**
+     * Whether element waits are pending
+     */
+    void setWaiting(boolean waiting) {
+        if (this.waiting != waiting) {
+            this.waiting = waiting;
+            scheduleApply();
+        }
+    }
+
+    private void scheduleApply() {
+        mainHandler.removeCallbacks(applyRunnable);
+        mainHandler.post(applyRunnable);
+    }
+
+    /**
+     * Push the subscription for the current demand if it changed (main thread)
+     */
+    void apply() {
+        boolean screen = waiting || (running && runLatency >= 0);
+        int events = screen ? SCREEN_EVENTS : IDLE_EVENTS;
+        long timeout = screen ? timeoutFor(waiting ? 0 : runLatency) : Constants.Limits.IDLE_EVENT_TIMEOUT;
+        if (events == appliedEvents && timeout == appliedTimeout) {
+            return;
+        }
+
+        AccessibilityServiceInfo info = new AccessibilityServiceInfo();
+        info.flags = AccessibilityServiceInfo.FLAG_REPORT_VIEW_IDS |
+                    AccessibilityServiceInfo.FLAG_RETRIEVE_INTERACTIVE_WINDOWS |
+                    AccessibilityServiceInfo.FLAG_REQUEST_ENHANCED_WEB_ACCESSIBILITY |
+                    AccessibilityServiceInfo.FLAG_REQUEST_TOUCH_EXPLORATION_MODE;
+        info.feedbackType = AccessibilityServiceInfo.FEEDBACK_GENERIC;
+        info.eventTypes = events;
+        info.notificationTimeout = timeout;
+        try {
+            service.setServiceInfo(info);
+        } catch (Exception e) {
+            Log.e(TAG, "Error updating service info", e);
+            return;
+        }
+
+        // Without content events the snapshot cannot tell when it goes stale
+        boolean tracking = (events & AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED) != 0;
+        service.getSnapshotCache().setTracking(tracking);
+        appliedEvents = events;
+        appliedTimeout = timeout;
+        Log.d(TAG, "Subscribed to " + (tracking ? "screen" : "idle") + " events, timeout " + timeout + "ms");
+    }
+
+    /**
+     * Batch events for at most a quarter of the time the run has to react,
+     * within the limits
+     */
+    private static long timeoutFor(long latency) {
+        return Math.max(Constants.Limits.MIN_EVENT_TIMEOUT,
+                Math.min(latency / 4, Constants.Limits.MAX_EVENT_TIMEOUT));
+    }
+
+    /**
+     * Event types currently subscribed to
+     */
+    public int getEventTypes() {
+        return appliedEvents;
+    }
+
+    /**
+     * Notification timeout currently applied
+     */
+    public long getNotificationTimeout() {
+        return appliedTimeout;
+    }
+}
@@ -0,0 +1,238 @@
+package com.thebluecode.trxautophone.service;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityWindowInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.thebluecode.trxautophone.utils.Constants;
+
+import java.util.Locale;
+
+/**
+ * Fetches nodes from the active window with a prefetch strategy suited to
+ * each kind of query, and measures what every query cost.
+ *
+ * On API 33+ a snapshot capture asks for depth-first, uninterruptible
+ * prefetching of descendants, so one binder call brings back a whole branch
+ * in the order the capture walks it; fetching a single node by path uses the
+ * hybrid strategy; queries answered on the app side, like a view id search,
+ * skip prefetching altogether. Older platforms always use their default
+ * prefetch, and the capture stays bounded by its node limit.
+ *
+ * Fetches are timed; one slower than {@link Constants.Limits#IPC_FETCH_THRESHOLD_NANOS}
+ * is counted as a binder round trip, a faster one as served from the
+ * prefetch cache.
+ */
+public class NodeRetriever {
+    private static final String TAG = "NodeRetriever";
+
+    /**
+     * Kind of node query
+     */
+    public enum QueryType {
+        /** Capture of the whole hierarchy */
+        SNAPSHOT,
+        /** Fetch of one node by its child path */
+        NODE,
+        /** Search answered by the app, e.g. by view id */
+        SEARCH
+    }
+
+    /**
+     * Accumulated cost of the queries of one type
+     */
+    public static final class Metrics {
+        private long queries;
+        private long fetches;
+        private long roundTrips;
+        private long totalNanos;
+        private long maxNanos;
+
+        public synchronized long getQueries() { return queries; }
+        public synchronized long getFetches() { return fetches; }
+
+        /**
+         * Fetches estimated to have crossed the binder
+         */
+        public synchronized long getRoundTrips() { return roundTrips; }
+
+        public synchronized double getAverageMillis() {
+            return queries == 0 ? 0 : totalNanos / 1e6 / queries;
+        }
+
+        public synchronized double getMaxMillis() {
+            return maxNanos / 1e6;
+        }
+
+        private synchronized void record(Trace trace, long nanos) {
+            queries++;
+            fetches += trace.fetches;
+            roundTrips += trace.roundTrips;
+            totalNanos += nanos;
+            if (nanos > maxNanos) maxNanos = nanos;
+        }
+
+        @NonNull
+        @Override
+        public synchronized String toString() {
+            return String.format(Locale.US, "n=%d fetches=%d ipc=%d avg=%.2fms max=%.2fms",
+                    queries, fetches, roundTrips, getAverageMillis(), getMaxMillis());
+        }
+    }
+
+    /**
+     * Cost of one query in progress. Confined to the thread running the query.
+     */
+    public final class Trace {
+        private final QueryType type;
+        private final long start = SystemClock.elapsedRealtimeNanos();
+        private final int childStrategy;
+        private int fetches;
+        private int roundTrips;
+
+        private Trace(QueryType type) {
+            this.type = type;
+            this.childStrategy = childStrategyFor(type);
+        }
+
+        /**
+         * Fetch a child, prefetching below it as the query type calls for
+         */
+        @Nullable
+        public AccessibilityNodeInfo getChild(@NonNull AccessibilityNodeInfo parent, int index) {
+            long fetchStart = SystemClock.elapsedRealtimeNanos();
+            AccessibilityNodeInfo child;
+            if (childStrategy != 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                child = parent.getChild(index, childStrategy);
+            } else {
+                child = parent.getChild(index);
+            }
+            countFetch(fetchStart);
+            return child;
+        }
+
+        /**
+         * Count a fetch made by other means, e.g. a view id search
+         */
+        public void countFetch(long fetchStart) {
+            fetches++;
+            if (SystemClock.elapsedRealtimeNanos() - fetchStart >= Constants.Limits.IPC_FETCH_THRESHOLD_NANOS) {
+                roundTrips++;
+            }
+        }
+
+        /**
+         * Record the query's cost
+         */
+        public void end() {
+            metricsFor(type).record(this, SystemClock.elapsedRealtimeNanos() - start);
+        }
+    }
+
+    private final AutoClickAccessibilityService service;
+    private final Metrics[] metrics = new Metrics[QueryType.values().length];
+
+    NodeRetriever(@NonNull AutoClickAccessibilityService service) {
+        this.service = service;
+        for (int i = 0; i < metrics.length; i++) {
+            metrics[i] = new Metrics();
+        }
+    }
+
+    /**
+     * Start measuring a query
+     */
+    @NonNull
+    public Trace begin(@NonNull QueryType type) {
+        return new Trace(type);
+    }
+
+    /**
+     * Root of the active window, fetched with the query type's prefetch strategy
+     */
+    @Nullable
+    public AccessibilityNodeInfo getRoot(@NonNull Trace trace) {
+        long fetchStart = SystemClock.elapsedRealtimeNanos();
+        AccessibilityNodeInfo root;
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                root = service.getRootInActiveWindow(rootStrategyFor(trace.type));
+            } else {
+                root = service.getRootInActiveWindow();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting root node", e);
+            root = null;
+        }
+        trace.countFetch(fetchStart);
+        return root;
+    }
+
+    /**
+     * Root of a given window, fetched with the query type's prefetch strategy
+     */
+    @Nullable
+    public AccessibilityNodeInfo getRoot(@NonNull Trace trace, @NonNull AccessibilityWindowInfo window) {
+        long fetchStart = SystemClock.elapsedRealtimeNanos();
+        AccessibilityNodeInfo root;
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                root = window.getRoot(rootStrategyFor(trace.type));
+            } else {
+                root = window.getRoot();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting root of window " + window.getId(), e);
+            root = null;
+        }
+        trace.countFetch(fetchStart);
+        return root;
+    }
+
+    @NonNull
+    public Metrics metricsFor(@NonNull QueryType type) {
+        return metrics[type.ordinal()];
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (QueryType type : QueryType.values()) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(type).append(": ").append(metricsFor(type));
+        }
+        return sb.toString();
+    }
+
+    private static int rootStrategyFor(QueryType type) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
+            return 0;
+        }
+        switch (type) {
+            case SNAPSHOT:
+                return AccessibilityNodeInfo.FLAG_PREFETCH_DESCENDANTS_DEPTH_FIRST
+                        | AccessibilityNodeInfo.FLAG_PREFETCH_UNINTERRUPTIBLE;
+            case NODE:
+                return AccessibilityNodeInfo.FLAG_PREFETCH_DESCENDANTS_HYBRID;
+            default:
+                return 0;
+        }
+    }
+
+    private static int childStrategyFor(QueryType type) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
+            return 0;
+        }
+        // Only descendant strategies are valid when fetching a child
+        return type == QueryType.SNAPSHOT
+                ? AccessibilityNodeInfo.FLAG_PREFETCH_DESCENDANTS_DEPTH_FIRST
+                        | AccessibilityNodeInfo.FLAG_PREFETCH_UNINTERRUPTIBLE
+                : 0;
+    }
+}
@@ -0,0 +1,501 @@
+package com.thebluecode.trxautophone.service;
+
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiled selector for targeting a node by its properties rather than by
+ * coordinates or exact text.
+ *
+ * The syntax is CSS-like: compounds separated by a space (descendant) or
+ * {@code >} (child). A compound is an optional class name, optionally followed
+ * by {@code #viewId} and any number of {@code [attribute]} filters:
+ * <pre>
+ *   FrameLayout#content > Button[text^=ok][clickable]
+ *   [id=com.example:id/list] TextView[index=2]
+ *   *[desc~="^Play( all)?$"][enabled=true]
+ * </pre>
+ * String attributes are {@code id}, {@code class}, {@code text} and
+ * {@code desc}, compared with {@code =} (exact), {@code ^=} (prefix),
+ * {@code *=} (contains), {@code %=} (equal ignoring case) or {@code ~=}
+ * (regex). Boolean attributes are the node's state flags, e.g.
+ * {@code [clickable]} or {@code [checked=false]}; {@code [index=N]} is the
+ * node's position among its siblings. A class name or id without a package
+ * matches by simple name.
+ *
+ * A selector is parsed once and then evaluated in a single pre-order pass
+ * over a {@link NodeSnapshot}. A selector that is a single compound with an
+ * exact view id can also be resolved with one
+ * {@code findAccessibilityNodeInfosByViewId} query, without any snapshot.
+ */
+public final class NodeSelector {
+    private static final int MAX_COMPOUNDS = 31;
+
+    private enum Attribute {
+        ID, CLASS, TEXT, DESC, INDEX, FLAG
+    }
+
+    /**
+     * One {@code [attribute]} filter
+     */
+    private static final class Filter {
+        final Attribute attribute;
+        final NodeTextIndex.Query query;
+        final String shortName;
+        final int flag;
+        final boolean expected;
+        final int index;
+
+        private Filter(Attribute attribute, NodeTextIndex.Query query, String shortName,
+                       int flag, boolean expected, int index) {
+            this.attribute = attribute;
+            this.query = query;
+            this.shortName = shortName;
+            this.flag = flag;
+            this.expected = expected;
+            this.index = index;
+        }
+
+        static Filter string(Attribute attribute, String value, NodeTextIndex.MatchMode mode) {
+            // Ids and class names without a package match by their last segment
+            String shortName = null;
+            if (mode == NodeTextIndex.MatchMode.EXACT) {
+                if (attribute == Attribute.ID && !value.contains(":id/")) {
+                    shortName = ":id/" + value;
+                } else if (attribute == Attribute.CLASS && !value.contains(".")) {
+                    shortName = "." + value;
+                }
+            }
+            return new Filter(attribute, NodeTextIndex.Query.of(value, mode, false), shortName, 0, true, -1);
+        }
+
+        boolean matchesString(@Nullable CharSequence value) {
+            if (value == null) {
+                return false;
+            }
+            if (shortName != null) {
+                String s = value.toString();
+                return s.equals(query.getText()) || s.endsWith(shortName);
+            }
+            return query.matches(value, null);
+        }
+
+        boolean matches(@NonNull NodeSnapshot snapshot, int node) {
+            switch (attribute) {
+                case ID:
+                    return matchesString(snapshot.getViewId(node));
+                case CLASS:
+                    return matchesString(snapshot.getClassName(node));
+                case TEXT:
+                    return matchesString(snapshot.getText(node));
+                case DESC:
+                    return matchesString(snapshot.getDescription(node));
+                case INDEX:
+                    return node > 0 && snapshot.getIndexInParent(node) == index;
+                default:
+                    return snapshot.hasFlag(node, flag) == expected;
+            }
+        }
+
+        boolean matches(@NonNull AccessibilityNodeInfo node) {
+            switch (attribute) {
+                case ID:
+                    return matchesString(node.getViewIdResourceName());
+                case CLASS:
+                    return matchesString(node.getClassName());
+                case TEXT:
+                    return matchesString(node.getText());
+                case DESC:
+                    return matchesString(node.getContentDescription());
+                case INDEX:
+                    return false; // Needs the parent; never used on the fast path
+                default:
+                    return ((liveFlags(node) & flag) != 0) == expected;
+            }
+        }
+    }
+
+    private final String source;
+    private final Filter[][] compounds;
+    // childOf[k]: compound k must be a direct child of compound k - 1
+    private final boolean[] childOf;
+    private final String fastPathId;
+
+    private NodeSelector(String source, List<Filter[]> compounds, List<Boolean> childOf) {
+        this.source = source;
+        this.compounds = compounds.toArray(new Filter[0][]);
+        this.childOf = new boolean[childOf.size()];
+        for (int i = 0; i < this.childOf.length; i++) {
+            this.childOf[i] = childOf.get(i);
+        }
+        this.fastPathId = findFastPathId();
+    }
+
+    /**
+     * Parse a selector
+     *
+     * @throws IllegalArgumentException on a syntax error
+     */
+    @NonNull
+    public static NodeSelector compile(@NonNull String selector) {
+        return new Parser(selector).parse();
+    }
+
+    /**
+     * First node in pre-order matching the selector, or -1
+     */
+    public int find(@NonNull NodeSnapshot snapshot) {
+        int size = snapshot.size();
+        int last = compounds.length - 1;
+        int targetBit = 1 << last;
+        // matched[i]: bit k set when node i matches compound k with compounds
+        // 0..k-1 satisfied along its ancestors; inherited[i] ORs that over i
+        // and all its ancestors
+        int[] matched = new int[size];
+        int[] inherited = new int[size];
+        for (int i = 0; i < size; i++) {
+            int parent = snapshot.getParent(i);
+            int parentMatched = parent >= 0 ? matched[parent] : 0;
+            int ancestors = parent >= 0 ? inherited[parent] : 0;
+            int bits = 0;
+            for (int k = 0; k <= last; k++) {
+                if (k > 0) {
+                    int required = childOf[k] ? parentMatched : ancestors;
+                    if ((required & (1 << (k - 1))) == 0) {
+                        continue;
+                    }
+                }
+                if (matches(compounds[k], snapshot, i)) {
+                    bits |= 1 << k;
+                }
+            }
+            if ((bits & targetBit) != 0) {
+                return i;
+            }
+            matched[i] = bits;
+            inherited[i] = ancestors | bits;
+        }
+        return -1;
+    }
+
+    /**
+     * Whether the view id fast path applies
+     */
+    public boolean hasViewIdFastPath() {
+        return fastPathId != null;
+    }
+
+    /**
+     * Resolve a single-compound selector with an exact view id through
+     * {@code findAccessibilityNodeInfosByViewId}. The caller owns the returned
+     * node; {@code root} is not recycled.
+     */
+    @Nullable
+    public AccessibilityNodeInfo findByViewId(@NonNull AccessibilityNodeInfo root) {
+        if (fastPathId == null) {
+            return null;
+        }
+        String viewId = fastPathId;
+        if (!viewId.contains(":id/")) {
+            CharSequence packageName = root.getPackageName();
+            if (packageName == null) {
+                return null;
+            }
+            viewId = packageName + ":id/" + viewId;
+        }
+        AccessibilityNodeInfo found = null;
+        for (AccessibilityNodeInfo node : root.findAccessibilityNodeInfosByViewId(viewId)) {
+            if (found == null && node != null && matchesTarget(node)) {
+                found = node;
+            } else if (node != null) {
+                node.recycle();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Check a live node against the selector's last compound only, e.g. to
+     * revalidate a node found earlier
+     */
+    public boolean matchesTarget(@NonNull AccessibilityNodeInfo node) {
+        for (Filter filter : compounds[compounds.length - 1]) {
+            if (filter.attribute != Attribute.INDEX && !filter.matches(node)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    private static boolean matches(Filter[] compound, NodeSnapshot snapshot, int node) {
+        for (Filter filter : compound) {
+            if (!filter.matches(snapshot, node)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    private String findFastPathId() {
+        if (compounds.length != 1) {
+            return null;
+        }
+        String id = null;
+        for (Filter filter : compounds[0]) {
+            if (filter.attribute == Attribute.INDEX) {
+                return null;
+            }
+            if (filter.attribute == Attribute.ID && filter.query.getMode() == NodeTextIndex.MatchMode.EXACT) {
+                id = filter.query.getText();
+            }
+        }
+        return id;
+    }
+
+    private static int liveFlags(AccessibilityNodeInfo node) {
+        int f = 0;
+        if (node.isClickable()) f |= NodeSnapshot.FLAG_CLICKABLE;
+        if (node.isLongClickable()) f |= NodeSnapshot.FLAG_LONG_CLICKABLE;
+        if (node.isFocusable()) f |= NodeSnapshot.FLAG_FOCUSABLE;
+        if (node.isFocused()) f |= NodeSnapshot.FLAG_FOCUSED;
+        if (node.isEditable()) f |= NodeSnapshot.FLAG_EDITABLE;
+        if (node.isScrollable()) f |= NodeSnapshot.FLAG_SCROLLABLE;
+        if (node.isCheckable()) f |= NodeSnapshot.FLAG_CHECKABLE;
+        if (node.isChecked()) f |= NodeSnapshot.FLAG_CHECKED;
+        if (node.isSelected()) f |= NodeSnapshot.FLAG_SELECTED;
+        if (node.isEnabled()) f |= NodeSnapshot.FLAG_ENABLED;
+        if (node.isVisibleToUser()) f |= NodeSnapshot.FLAG_VISIBLE;
+        return f;
+    }
+
+    private static int flagFor(String name) {
+        switch (name) {
+            case "clickable": return NodeSnapshot.FLAG_CLICKABLE;
+            case "long-clickable": return NodeSnapshot.FLAG_LONG_CLICKABLE;
+            case "focusable": return NodeSnapshot.FLAG_FOCUSABLE;
+            case "focused": return NodeSnapshot.FLAG_FOCUSED;
+            case "editable": return NodeSnapshot.FLAG_EDITABLE;
+            case "scrollable": return NodeSnapshot.FLAG_SCROLLABLE;
+            case "checkable": return NodeSnapshot.FLAG_CHECKABLE;
+            case "checked": return NodeSnapshot.FLAG_CHECKED;
+            case "selected": return NodeSnapshot.FLAG_SELECTED;
+            case "enabled": return NodeSnapshot.FLAG_ENABLED;
+            case "visible": return NodeSnapshot.FLAG_VISIBLE;
+            default: return 0;
+        }
+    }
+
+    /**
+     * Recursive-descent parser for the selector syntax
+     */
+    private static final class Parser {
+        private final String input;
+        private int pos;
+
+        Parser(String input) {
+            this.input = input;
+        }
+
+        NodeSelector parse() {
+            List<Filter[]> compounds = new ArrayList<>();
+            List<Boolean> childOf = new ArrayList<>();
+            skipSpaces();
+            compounds.add(parseCompound());
+            childOf.add(false);
+            while (true) {
+                boolean spaced = skipSpaces();
+                if (pos >= input.length()) {
+                    break;
+                }
+                boolean child = false;
+                if (input.charAt(pos) == '>') {
+                    pos++;
+                    skipSpaces();
+                    child = true;
+                } else if (!spaced) {
+                    throw error("Expected a combinator");
+                }
+                compounds.add(parseCompound());
+                childOf.add(child);
+                if (compounds.size() > MAX_COMPOUNDS) {
+                    throw error("Selector has more than " + MAX_COMPOUNDS + " compounds");
+                }
+            }
+            return new NodeSelector(input, compounds, childOf);
+        }
+
+        private Filter[] parseCompound() {
+            List<Filter> filters = new ArrayList<>();
+            int start = pos;
+            if (pos < input.length() && input.charAt(pos) == '*') {
+                pos++;
+            } else if (pos < input.length() && isNameChar(input.charAt(pos))) {
+                filters.add(Filter.string(Attribute.CLASS, readName(), NodeTextIndex.MatchMode.EXACT));
+            }
+            while (pos < input.length()) {
+                char c = input.charAt(pos);
+                if (c == '#') {
+                    pos++;
+                    filters.add(Filter.string(Attribute.ID, readName(), NodeTextIndex.MatchMode.EXACT));
+                } else if (c == '[') {
+                    filters.add(parseFilter());
+                } else {
+                    break;
+                }
+            }
+            if (pos == start) {
+                throw error("Expected a class name, '*', '#' or '['");
+            }
+            return filters.toArray(new Filter[0]);
+        }
+
+        private Filter parseFilter() {
+            pos++; // [
+            skipSpaces();
+            String name = readName();
+            skipSpaces();
+            NodeTextIndex.MatchMode mode = null;
+            String value = null;
+            if (peek() != ']') {
+                mode = readOperator();
+                skipSpaces();
+                value = readValue();
+                skipSpaces();
+            }
+            if (peek() != ']') {
+                throw error("Expected ']'");
+            }
+            pos++;
+
+            switch (name) {
+                case "id":
+                    return Filter.string(Attribute.ID, require(value, name), mode);
+                case "class":
+                    return Filter.string(Attribute.CLASS, require(value, name), mode);
+                case "text":
+                    return Filter.string(Attribute.TEXT, require(value, name), mode);
+                case "desc":
+                    return Filter.string(Attribute.DESC, require(value, name), mode);
+                case "index":
+                    if (mode != NodeTextIndex.MatchMode.EXACT) {
+                        throw error("[index] needs '=' and a number");
+                    }
+                    try {
+                        return new Filter(Attribute.INDEX, null, null, 0, true, Integer.parseInt(value));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid index: " + value);
+                    }
+                default:
+                    int flag = flagFor(name);
+                    if (flag == 0) {
+                        throw error("Unknown attribute: " + name);
+                    }
+                    boolean expected = true;
+                    if (value != null) {
+                        if (mode != NodeTextIndex.MatchMode.EXACT
+                                || !("true".equals(value) || "false".equals(value))) {
+                            throw error("[" + name + "] takes '=true' or '=false'");
+                        }
+                        expected = Boolean.parseBoolean(value);
+                    }
+                    return new Filter(Attribute.FLAG, null, null, flag, expected, -1);
+            }
+        }
+
+        private NodeTextIndex.MatchMode readOperator() {
+            char c = peek();
+            if (c == '=') {
+                pos++;
+                return NodeTextIndex.MatchMode.EXACT;
+            }
+            if (pos + 1 < input.length() && input.charAt(pos + 1) == '=') {
+                NodeTextIndex.MatchMode mode;
+                switch (c) {
+                    case '^': mode = NodeTextIndex.MatchMode.PREFIX; break;
+                    case '*': mode = NodeTextIndex.MatchMode.CONTAINS; break;
+                    case '%': mode = NodeTextIndex.MatchMode.IGNORE_CASE; break;
+                    case '~': mode = NodeTextIndex.MatchMode.REGEX; break;
+                    default: throw error("Unknown operator");
+                }
+                pos += 2;
+                return mode;
+            }
+            throw error("Expected an operator or ']'");
+        }
+
+        private String readValue() {
+            char quote = peek();
+            if (quote == '"' || quote == '\'') {
+                pos++;
+                StringBuilder value = new StringBuilder();
+                while (pos < input.length() && input.charAt(pos) != quote) {
+                    char c = input.charAt(pos++);
+                    if (c == '\\' && pos < input.length()) {
+                        c = input.charAt(pos++);
+                    }
+                    value.append(c);
+                }
+                if (pos >= input.length()) {
+                    throw error("Unterminated string");
+                }
+                pos++;
+                return value.toString();
+            }
+            int start = pos;
+            while (pos < input.length() && input.charAt(pos) != ']') {
+                pos++;
+            }
+            return input.substring(start, pos).trim();
+        }
+
+        private String readName() {
+            int start = pos;
+            while (pos < input.length() && isNameChar(input.charAt(pos))) {
+                pos++;
+            }
+            if (pos == start) {
+                throw error("Expected a name");
+            }
+            return input.substring(start, pos);
+        }
+
+        private String require(String value, String name) {
+            if (value == null) {
+                throw error("[" + name + "] needs a value");
+            }
+            return value;
+        }
+
+        private boolean skipSpaces() {
+            int start = pos;
+            while (pos < input.length() && Character.isWhitespace(input.charAt(pos))) {
+                pos++;
+            }
+            return pos > start;
+        }
+
+        private char peek() {
+            return pos < input.length() ? input.charAt(pos) : '\0';
+        }
+
+        private static boolean isNameChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '.' || c == '_' || c == '$' || c == '-' || c == ':' || c == '/';
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at " + pos + " in selector: " + input);
+        }
+    }
+}
@@ -0,0 +1,590 @@
+package com.thebluecode.trxautophone.service;
+
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, flat copy of the active window's node hierarchy.
+ *
+ * Nodes are numbered in pre-order, so a node's subtree is the contiguous range
+ * {@code [index, getSubtreeEnd(index))}. Per-node state lives in primitive
+ * arrays and strings are interned into one pool, so queries never touch the
+ * binder. {@link #acquire} fetches the live node behind an index only when an
+ * action must be performed on it.
+ */
+public final class NodeSnapshot {
+    public static final int FLAG_CLICKABLE = 1;
+    public static final int FLAG_LONG_CLICKABLE = 1 << 1;
+    public static final int FLAG_FOCUSABLE = 1 << 2;
+    public static final int FLAG_FOCUSED = 1 << 3;
+    public static final int FLAG_EDITABLE = 1 << 4;
+    public static final int FLAG_SCROLLABLE = 1 << 5;
+    public static final int FLAG_CHECKABLE = 1 << 6;
+    public static final int FLAG_CHECKED = 1 << 7;
+    public static final int FLAG_SELECTED = 1 << 8;
+    public static final int FLAG_ENABLED = 1 << 9;
+    public static final int FLAG_VISIBLE = 1 << 10;
+
+    /** Pool index of a missing string */
+    public static final int NO_STRING = -1;
+
+    private final int size;
+    private final int windowId;
+    private final long generation;
+    private final long captureTime;
+    private final boolean truncated;
+    private final int[] parent;
+    private final int[] indexInParent;
+    private final int[] subtreeEnd;
+    private final int[] depth;
+    private final int[] bounds;
+    private final int[] flags;
+    private final int[] text;
+    private final int[] description;
+    private final int[] viewId;
+    private final int[] className;
+    private final String[] strings;
+    private final Map<String, Integer> pool;
+    private volatile NodeTextIndex textIndex;
+    private volatile ClickableGrid clickableGrid;
+
+    private NodeSnapshot(Builder builder, long generation) {
+        this.size = builder.size;
+        this.windowId = builder.windowId;
+        this.generation = generation;
+        this.captureTime = SystemClock.uptimeMillis();
+        this.truncated = builder.truncated;
+        this.parent = Arrays.copyOf(builder.parent, size);
+        this.indexInParent = Arrays.copyOf(builder.indexInParent, size);
+        this.depth = Arrays.copyOf(builder.depth, size);
+        this.bounds = Arrays.copyOf(builder.bounds, size * 4);
+        this.flags = Arrays.copyOf(builder.flags, size);
+        this.text = Arrays.copyOf(builder.text, size);
+        this.description = Arrays.copyOf(builder.description, size);
+        this.viewId = Arrays.copyOf(builder.viewId, size);
+        this.className = Arrays.copyOf(builder.className, size);
+        this.strings = builder.strings.toArray(new String[0]);
+        this.pool = builder.pool;
+
+        // Pre-order: a subtree ends where the last descendant's subtree ends
+        this.subtreeEnd = new int[size];
+        for (int i = 0; i < size; i++) {
+            subtreeEnd[i] = i + 1;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int p = parent[i];
+            if (subtreeEnd[i] > subtreeEnd[p]) {
+                subtreeEnd[p] = subtreeEnd[i];
+            }
+        }
+    }
+
+    /**
+     * Copy the hierarchy under {@code root}. The root stays owned by the caller;
+     * every other node fetched is recycled.
+     *
+     * @param generation invalidation generation the capture started at
+     * @param maxNodes nodes beyond this are left out and the snapshot is marked truncated
+     * @param trace query the child fetches are counted against, or null
+     */
+    @NonNull
+    static NodeSnapshot capture(@NonNull AccessibilityNodeInfo root, long generation, int maxNodes,
+                                @Nullable NodeRetriever.Trace trace) {
+        Builder builder = new Builder(root.getWindowId());
+        Rect rect = new Rect();
+
+        // Explicit stack of (node, parent index, index in parent, depth)
+        ArrayList<AccessibilityNodeInfo> stack = new ArrayList<>();
+        int[] stackInfo = new int[48];
+        stack.add(root);
+        stackInfo[0] = -1;
+        stackInfo[1] = 0;
+        stackInfo[2] = 0;
+
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            AccessibilityNodeInfo node = stack.remove(top);
+            int parentIndex = stackInfo[top * 3];
+            int childIndex = stackInfo[top * 3 + 1];
+            int nodeDepth = stackInfo[top * 3 + 2];
+
+            if (builder.size >= maxNodes) {
+                builder.truncated = true;
+                if (node != root) {
+                    node.recycle();
+                }
+                continue;
+            }
+
+            int index = builder.add(node, parentIndex, childIndex, nodeDepth, rect);
+            int childCount = node.getChildCount();
+            // Pushed in reverse so children are numbered in order
+            for (int i = childCount - 1; i >= 0; i--) {
+                AccessibilityNodeInfo child = getChild(node, i, trace);
+                if (child == null) {
+                    continue;
+                }
+                int slot = stack.size();
+                if ((slot + 1) * 3 > stackInfo.length) {
+                    stackInfo = Arrays.copyOf(stackInfo, stackInfo.length * 2);
+                }
+                stack.add(child);
+                stackInfo[slot * 3] = index;
+                stackInfo[slot * 3 + 1] = i;
+                stackInfo[slot * 3 + 2] = nodeDepth + 1;
+            }
+            if (node != root) {
+                node.recycle();
+            }
+        }
+        return new NodeSnapshot(builder, generation);
+    }
+
+    /**
+     * Fetch the live node behind an index, walking down from {@code root} by
+     * child position. Returns null when the live tree no longer matches the
+     * snapshot there. The caller owns the returned node; {@code root} is not
+     * recycled.
+     */
+    @Nullable
+    public AccessibilityNodeInfo acquire(@NonNull AccessibilityNodeInfo root, int index) {
+        return acquire(root, index, null);
+    }
+
+    @Nullable
+    AccessibilityNodeInfo acquire(@NonNull AccessibilityNodeInfo root, int index,
+                                  @Nullable NodeRetriever.Trace trace) {
+        if (index < 0 || index >= size || root.getWindowId() != windowId) {
+            return null;
+        }
+        int[] path = getPath(index);
+        AccessibilityNodeInfo node = root;
+        for (int childIndex : path) {
+            AccessibilityNodeInfo child = childIndex < node.getChildCount()
+                    ? getChild(node, childIndex, trace) : null;
+            if (node != root) {
+                node.recycle();
+            }
+            if (child == null) {
+                return null;
+            }
+            node = child;
+        }
+        if (node == root) {
+            node = AccessibilityNodeInfo.obtain(root);
+        }
+        if (!matchesLive(node, index)) {
+            node.recycle();
+            return null;
+        }
+        return node;
+    }
+
+    /**
+     * Child positions leading from the root down to a node
+     */
+    @NonNull
+    public int[] getPath(int index) {
+        int[] path = new int[depth[index]];
+        for (int i = index, d = path.length - 1; i > 0; i = parent[i], d--) {
+            path[d] = indexInParent[i];
+        }
+        return path;
+    }
+
+    @Nullable
+    private static AccessibilityNodeInfo getChild(AccessibilityNodeInfo node, int index,
+                                                  @Nullable NodeRetriever.Trace trace) {
+        return trace != null ? trace.getChild(node, index) : node.getChild(index);
+    }
+
+    private boolean matchesLive(AccessibilityNodeInfo node, int index) {
+        if (!equalsString(node.getClassName(), className[index])
+                || !equalsString(node.getText(), text[index])) {
+            return false;
+        }
+        Rect rect = new Rect();
+        node.getBoundsInScreen(rect);
+        int b = index * 4;
+        return rect.left == bounds[b] && rect.top == bounds[b + 1]
+                && rect.right == bounds[b + 2] && rect.bottom == bounds[b + 3];
+    }
+
+    private boolean equalsString(@Nullable CharSequence value, int pooled) {
+        if (value == null) {
+            return pooled == NO_STRING;
+        }
+        return pooled != NO_STRING && strings[pooled].contentEquals(value);
+    }
+
+    // Queries
+
+    /**
+     * First node whose text equals {@code value}, or -1
+     */
+    public int findText(@NonNull String value) {
+        int pooled = indexOf(value);
+        return pooled == NO_STRING ? -1 : findPooled(text, pooled);
+    }
+
+    /**
+     * First node matching a text query, or -1
+     */
+    public int find(@NonNull NodeTextIndex.Query query) {
+        return getTextIndex().find(query);
+    }
+
+    /**
+     * The text index of this snapshot, built on first use
+     */
+    @NonNull
+    public NodeTextIndex getTextIndex() {
+        NodeTextIndex index = textIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = textIndex;
+                if (index == null) {
+                    index = new NodeTextIndex(this);
+                    textIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * The hit-test grid of this snapshot's clickable nodes, built on first use
+     */
+    @NonNull
+    public ClickableGrid getClickableGrid() {
+        ClickableGrid grid = clickableGrid;
+        if (grid == null) {
+            synchronized (this) {
+                grid = clickableGrid;
+                if (grid == null) {
+                    grid = new ClickableGrid(this);
+                    clickableGrid = grid;
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * First node whose content description equals {@code value}, or -1
+     */
+    public int findDescription(@NonNull String value) {
+        int pooled = indexOf(value);
+        return pooled == NO_STRING ? -1 : findPooled(description, pooled);
+    }
+
+    /**
+     * The node holding input focus, or -1
+     */
+    public int findFocused() {
+        for (int i = 0; i < size; i++) {
+            if ((flags[i] & FLAG_FOCUSED) != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The outermost clickable node containing the point, or -1. Subtrees whose
+     * root does not contain the point are skipped.
+     */
+    public int findClickableAt(float x, float y) {
+        int px = (int) x;
+        int py = (int) y;
+        int i = 0;
+        while (i < size) {
+            if (contains(i, px, py)) {
+                if ((flags[i] & FLAG_CLICKABLE) != 0) {
+                    return i;
+                }
+                i++;
+            } else {
+                i = subtreeEnd[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The node itself if clickable, else its nearest clickable ancestor, or -1
+     */
+    public int findClickableAncestor(int index) {
+        for (int i = index; i >= 0; i = parent[i]) {
+            if ((flags[i] & FLAG_CLICKABLE) != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int findPooled(int[] column, int pooled) {
+        for (int i = 0; i < size; i++) {
+            if (column[i] == pooled) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Pool index of a string, or {@link #NO_STRING} if no node carries it
+     */
+    public int indexOf(@NonNull String value) {
+        Integer pooled = pool.get(value);
+        return pooled != null ? pooled : NO_STRING;
+    }
+
+    private boolean contains(int index, int x, int y) {
+        int b = index * 4;
+        return bounds[b] < bounds[b + 2] && bounds[b + 1] < bounds[b + 3]
+                && x >= bounds[b] && x < bounds[b + 2] && y >= bounds[b + 1] && y < bounds[b + 3];
+    }
+
+    // Accessors
+
+    public int size() {
+        return size;
+    }
+
+    public int getWindowId() {
+        return windowId;
+    }
+
+    /**
+     * Invalidation generation the snapshot was captured at
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Uptime the capture finished at
+     */
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    /**
+     * Whether nodes were left out because the tree exceeded the node limit
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Parent index, or -1 for the root
+     */
+    public int getParent(int index) {
+        return parent[index];
+    }
+
+    public int getIndexInParent(int index) {
+        return indexInParent[index];
+    }
+
+    /**
+     * Exclusive end of the node's subtree in pre-order
+     */
+    public int getSubtreeEnd(int index) {
+        return subtreeEnd[index];
+    }
+
+    public int getDepth(int index) {
+        return depth[index];
+    }
+
+    public void getBounds(int index, @NonNull Rect out) {
+        int b = index * 4;
+        out.set(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3]);
+    }
+
+    public int getLeft(int index) {
+        return bounds[index * 4];
+    }
+
+    public int getTop(int index) {
+        return bounds[index * 4 + 1];
+    }
+
+    public int getRight(int index) {
+        return bounds[index * 4 + 2];
+    }
+
+    public int getBottom(int index) {
+        return bounds[index * 4 + 3];
+    }
+
+    public int getFlags(int index) {
+        return flags[index];
+    }
+
+    public boolean hasFlag(int index, int flag) {
+        return (flags[index] & flag) != 0;
+    }
+
+    @Nullable
+    public String getText(int index) {
+        return string(text[index]);
+    }
+
+    @Nullable
+    public String getDescription(int index) {
+        return string(description[index]);
+    }
+
+    @Nullable
+    public String getViewId(int index) {
+        return string(viewId[index]);
+    }
+
+    @Nullable
+    public String getClassName(int index) {
+        return string(className[index]);
+    }
+
+    /**
+     * Pool index of the node's text, or {@link #NO_STRING}
+     */
+    public int getTextIndex(int index) {
+        return text[index];
+    }
+
+    /**
+     * Pool index of the node's content description, or {@link #NO_STRING}
+     */
+    public int getDescriptionIndex(int index) {
+        return description[index];
+    }
+
+    /**
+     * Pool index of the node's view id, or {@link #NO_STRING}
+     */
+    public int getViewIdIndex(int index) {
+        return viewId[index];
+    }
+
+    /**
+     * Pool index of the node's class name, or {@link #NO_STRING}
+     */
+    public int getClassNameIndex(int index) {
+        return className[index];
+    }
+
+    public int getStringCount() {
+        return strings.length;
+    }
+
+    @NonNull
+    public String getString(int pooled) {
+        return strings[pooled];
+    }
+
+    @Nullable
+    private String string(int pooled) {
+        return pooled == NO_STRING ? null : strings[pooled];
+    }
+
+    /**
+     * Growable columns filled during a capture
+     */
+    private static final class Builder {
+        private final int windowId;
+        private final Map<String, Integer> pool = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private int size;
+        private boolean truncated;
+        private int[] parent = new int[64];
+        private int[] indexInParent = new int[64];
+        private int[] depth = new int[64];
+        private int[] bounds = new int[64 * 4];
+        private int[] flags = new int[64];
+        private int[] text = new int[64];
+        private int[] description = new int[64];
+        private int[] viewId = new int[64];
+        private int[] className = new int[64];
+
+        Builder(int windowId) {
+            this.windowId = windowId;
+        }
+
+        int add(AccessibilityNodeInfo node, int parentIndex, int childIndex, int nodeDepth, Rect rect) {
+            if (size == parent.length) {
+                grow();
+            }
+            int index = size++;
+            parent[index] = parentIndex;
+            indexInParent[index] = childIndex;
+            depth[index] = nodeDepth;
+            node.getBoundsInScreen(rect);
+            bounds[index * 4] = rect.left;
+            bounds[index * 4 + 1] = rect.top;
+            bounds[index * 4 + 2] = rect.right;
+            bounds[index * 4 + 3] = rect.bottom;
+            flags[index] = flagsOf(node);
+            text[index] = intern(node.getText());
+            description[index] = intern(node.getContentDescription());
+            viewId[index] = intern(node.getViewIdResourceName());
+            className[index] = intern(node.getClassName());
+            return index;
+        }
+
+        private int intern(@Nullable CharSequence value) {
+            if (value == null) {
+                return NO_STRING;
+            }
+            String key = value.toString();
+            Integer pooled = pool.get(key);
+            if (pooled == null) {
+                pooled = strings.size();
+                strings.add(key);
+                pool.put(key, pooled);
+            }
+            return pooled;
+        }
+
+        private void grow() {
+            int capacity = parent.length * 2;
+            parent = Arrays.copyOf(parent, capacity);
+            indexInParent = Arrays.copyOf(indexInParent, capacity);
+            depth = Arrays.copyOf(depth, capacity);
+            bounds = Arrays.copyOf(bounds, capacity * 4);
+            flags = Arrays.copyOf(flags, capacity);
+            text = Arrays.copyOf(text, capacity);
+            description = Arrays.copyOf(description, capacity);
+            viewId = Arrays.copyOf(viewId, capacity);
+            className = Arrays.copyOf(className, capacity);
+        }
+
+        private static int flagsOf(AccessibilityNodeInfo node) {
+            int f = 0;
+            if (node.isClickable()) f |= FLAG_CLICKABLE;
+            if (node.isLongClickable()) f |= FLAG_LONG_CLICKABLE;
+            if (node.isFocusable()) f |= FLAG_FOCUSABLE;
+            if (node.isFocused()) f |= FLAG_FOCUSED;
+            if (node.isEditable()) f |= FLAG_EDITABLE;
+            if (node.isScrollable()) f |= FLAG_SCROLLABLE;
+            if (node.isCheckable()) f |= FLAG_CHECKABLE;
+            if (node.isChecked()) f |= FLAG_CHECKED;
+            if (node.isSelected()) f |= FLAG_SELECTED;
+            if (node.isEnabled()) f |= FLAG_ENABLED;
+            if (node.isVisibleToUser()) f |= FLAG_VISIBLE;
+            return f;
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package com.thebluecode.trxautophone.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONObject;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Inverted index over the text and content descriptions of a {@link NodeSnapshot}.
+ *
+ * Built once per snapshot, on its first text query, and reused until the
+ * screen changes. Every distinct string of the snapshot is normalized (NFKC,
+ * case-folded, whitespace collapsed) and indexed three ways: by its whole
+ * normalized form, sorted for prefix ranges; by word token; and by trigram for
+ * substring queries. Queries resolve to distinct strings first and only then
+ * expand to the nodes carrying them, so their cost follows the number of
+ * matches rather than the size of the tree. Regular expressions, which cannot
+ * be indexed, are run once per distinct string instead of once per node.
+ */
+public final class NodeTextIndex {
+
+    /**
+     * How a query's text is compared with a node's
+     */
+    public enum MatchMode {
+        /** Identical text, case-sensitive */
+        EXACT,
+        /** Equal after normalization and case folding */
+        IGNORE_CASE,
+        /** Starts with the query, ignoring case */
+        PREFIX,
+        /** Contains every word of the query as a whole word, ignoring case */
+        WORDS,
+        /** Contains the query anywhere, ignoring case */
+        CONTAINS,
+        /** Java regular expression, found anywhere in the original text */
+        REGEX
+    }
+
+    /**
+     * A compiled text query. Immutable and reusable across snapshots.
+     */
+    public static final class Query {
+        private final String text;
+        private final MatchMode mode;
+        private final boolean description;
+        private final String normalized;
+        private final String[] tokens;
+        private final Pattern pattern;
+
+        private Query(@NonNull String text, @NonNull MatchMode mode, boolean description) {
+            this.text = text;
+            this.mode = mode;
+            this.description = description;
+            this.normalized = normalize(text);
+            this.tokens = tokenize(normalized);
+            this.pattern = mode == MatchMode.REGEX ? Pattern.compile(text) : null;
+        }
+
+        /**
+         * @param description also match content descriptions, not just text
+         * @throws java.util.regex.PatternSyntaxException for an invalid REGEX query
+         */
+        @NonNull
+        public static Query of(@NonNull String text, @NonNull MatchMode mode, boolean description) {
+            return new Query(text, mode, description);
+        }
+
+        /**
+         * Read the optional "match" mode and "description" flag of a step's
+         * action data; without them the query is the historical exact text match
+         */
+        @NonNull
+        public static Query fromJson(@NonNull String text, @NonNull JSONObject data) {
+            MatchMode mode = MatchMode.EXACT;
+            String name = data.optString("match", "");
+            if (!name.isEmpty()) {
+                mode = MatchMode.valueOf(name.toUpperCase(Locale.US));
+            }
+            return new Query(text, mode, data.optBoolean("description", false));
+        }
+
+        /**
+         * Check a live node's text and description against the query
+         */
+        public boolean matches(@Nullable CharSequence nodeText, @Nullable CharSequence nodeDescription) {
+            return (nodeText != null && matchesString(nodeText.toString()))
+                    || (description && nodeDescription != null && matchesString(nodeDescription.toString()));
+        }
+
+        private boolean matchesString(@NonNull String value) {
+            switch (mode) {
+                case EXACT:
+                    return text.equals(value);
+                case REGEX:
+                    return pattern.matcher(value).find();
+                default:
+                    return matchesNormalized(normalize(value));
+            }
+        }
+
+        private boolean matchesNormalized(@NonNull String value) {
+            switch (mode) {
+                case IGNORE_CASE:
+                    return normalized.equals(value);
+                case PREFIX:
+                    return value.startsWith(normalized);
+                case CONTAINS:
+                    return value.contains(normalized);
+                case WORDS:
+                    List<String> words = Arrays.asList(tokenize(value));
+                    for (String token : tokens) {
+                        if (!words.contains(token)) {
+                            return false;
+                        }
+                    }
+                    return tokens.length > 0;
+                default:
+                    return false;
+            }
+        }
+
+        @NonNull
+        public String getText() {
+            return text;
+        }
+
+        @NonNull
+        public MatchMode getMode() {
+            return mode;
+        }
+
+        public boolean includesDescription() {
+            return description;
+        }
+    }
+
+    private static final int[] EMPTY = new int[0];
+
+    private final NodeSnapshot snapshot;
+    // Nodes carrying each pooled string, as text and as description (CSR layout)
+    private final int[] textStart;
+    private final int[] textNodes;
+    private final int[] descStart;
+    private final int[] descNodes;
+    // Normalized form of each pooled string
+    private final String[] normalized;
+    // Distinct normalized forms, sorted, with the pooled strings behind each
+    private final String[] keys;
+    private final int[][] keyStrings;
+    private final Map<String, int[]> tokenStrings;
+    private final Map<Long, int[]> trigramStrings;
+
+    NodeTextIndex(@NonNull NodeSnapshot snapshot) {
+        this.snapshot = snapshot;
+        int strings = snapshot.getStringCount();
+        int size = snapshot.size();
+
+        textStart = new int[strings + 1];
+        descStart = new int[strings + 1];
+        for (int i = 0; i < size; i++) {
+            int t = snapshot.getTextIndex(i);
+            if (t != NodeSnapshot.NO_STRING) textStart[t + 1]++;
+            int d = snapshot.getDescriptionIndex(i);
+            if (d != NodeSnapshot.NO_STRING) descStart[d + 1]++;
+        }
+        for (int s = 0; s < strings; s++) {
+            textStart[s + 1] += textStart[s];
+            descStart[s + 1] += descStart[s];
+        }
+        textNodes = new int[textStart[strings]];
+        descNodes = new int[descStart[strings]];
+        int[] textFill = Arrays.copyOf(textStart, strings);
+        int[] descFill = Arrays.copyOf(descStart, strings);
+        // Ascending node order within each list, so the first entry is the first in pre-order
+        for (int i = 0; i < size; i++) {
+            int t = snapshot.getTextIndex(i);
+            if (t != NodeSnapshot.NO_STRING) textNodes[textFill[t]++] = i;
+            int d = snapshot.getDescriptionIndex(i);
+            if (d != NodeSnapshot.NO_STRING) descNodes[descFill[d]++] = i;
+        }
+
+        normalized = new String[strings];
+        Map<String, List<Integer>> byKey = new HashMap<>();
+        Map<String, List<Integer>> byToken = new HashMap<>();
+        Map<Long, List<Integer>> byTrigram = new HashMap<>();
+        for (int s = 0; s < strings; s++) {
+            if (textStart[s] == textStart[s + 1] && descStart[s] == descStart[s + 1]) {
+                continue; // View ids and class names share the pool
+            }
+            String norm = normalize(snapshot.getString(s));
+            normalized[s] = norm;
+            add(byKey, norm, s);
+            for (String token : tokenize(norm)) {
+                addOnce(byToken, token, s);
+            }
+            for (int c = 0; c + 3 <= norm.length(); c++) {
+                addOnce(byTrigram, trigram(norm, c), s);
+            }
+        }
+
+        keys = byKey.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        keyStrings = new int[keys.length][];
+        for (int k = 0; k < keys.length; k++) {
+            keyStrings[k] = toArray(byKey.get(keys[k]));
+        }
+        tokenStrings = new HashMap<>(byToken.size() * 2);
+        for (Map.Entry<String, List<Integer>> entry : byToken.entrySet()) {
+            tokenStrings.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        trigramStrings = new HashMap<>(byTrigram.size() * 2);
+        for (Map.Entry<Long, List<Integer>> entry : byTrigram.entrySet()) {
+            trigramStrings.put(entry.getKey(), toArray(entry.getValue()));
+        }
+    }
+
+    /**
+     * First node in pre-order matching the query, or -1
+     */
+    public int find(@NonNull Query query) {
+        int first = -1;
+        for (int s : matchStrings(query)) {
+            int node = firstNode(s, query.description);
+            if (node >= 0 && (first < 0 || node < first)) {
+                first = node;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Every node matching the query, in pre-order
+     */
+    @NonNull
+    public int[] findAll(@NonNull Query query) {
+        int[] strings = matchStrings(query);
+        int count = 0;
+        for (int s : strings) {
+            count += textStart[s + 1] - textStart[s];
+            if (query.description) count += descStart[s + 1] - descStart[s];
+        }
+        int[] nodes = new int[count];
+        int n = 0;
+        for (int s : strings) {
+            for (int i = textStart[s]; i < textStart[s + 1]; i++) nodes[n++] = textNodes[i];
+            if (query.description) {
+                for (int i = descStart[s]; i < descStart[s + 1]; i++) nodes[n++] = descNodes[i];
+            }
+        }
+        Arrays.sort(nodes);
+        // A node whose text and description both match is listed once
+        int unique = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            if (i == 0 || nodes[i] != nodes[i - 1]) nodes[unique++] = nodes[i];
+        }
+        return Arrays.copyOf(nodes, unique);
+    }
+
+    @NonNull
+    public NodeSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Pooled strings matching the query
+     */
+    private int[] matchStrings(Query query) {
+        switch (query.mode) {
+            case EXACT: {
+                int s = snapshot.indexOf(query.text);
+                return s == NodeSnapshot.NO_STRING ? EMPTY : new int[] { s };
+            }
+            case IGNORE_CASE: {
+                int k = Arrays.binarySearch(keys, query.normalized);
+                return k >= 0 ? keyStrings[k] : EMPTY;
+            }
+            case PREFIX:
+                return prefixStrings(query.normalized);
+            case WORDS:
+                return wordStrings(query.tokens);
+            case CONTAINS:
+                return containsStrings(query.normalized);
+            case REGEX:
+                return regexStrings(query.pattern);
+            default:
+                return EMPTY;
+        }
+    }
+
+    private int[] prefixStrings(String prefix) {
+        int from = lowerBound(prefix);
+        int to = from;
+        while (to < keys.length && keys[to].startsWith(prefix)) {
+            to++;
+        }
+        List<Integer> strings = new ArrayList<>();
+        for (int k = from; k < to; k++) {
+            for (int s : keyStrings[k]) strings.add(s);
+        }
+        return toArray(strings);
+    }
+
+    private int[] wordStrings(String[] tokens) {
+        if (tokens.length == 0) {
+            return EMPTY;
+        }
+        int[][] lists = new int[tokens.length][];
+        for (int t = 0; t < tokens.length; t++) {
+            lists[t] = tokenStrings.get(tokens[t]);
+            if (lists[t] == null) {
+                return EMPTY;
+            }
+        }
+        return intersect(lists);
+    }
+
+    private int[] containsStrings(String needle) {
+        if (needle.length() < 3) {
+            // Too short for trigrams; scan distinct strings, never nodes
+            List<Integer> strings = new ArrayList<>();
+            for (int s = 0; s < normalized.length; s++) {
+                if (normalized[s] != null && normalized[s].contains(needle)) strings.add(s);
+            }
+            return toArray(strings);
+        }
+        int[][] lists = new int[needle.length() - 2][];
+        for (int c = 0; c < lists.length; c++) {
+            lists[c] = trigramStrings.get(trigram(needle, c));
+            if (lists[c] == null) {
+                return EMPTY;
+            }
+        }
+        // Trigrams narrow the candidates; their order still has to be verified
+        int[] candidates = intersect(lists);
+        int n = 0;
+        for (int s : candidates) {
+            if (normalized[s].contains(needle)) candidates[n++] = s;
+        }
+        return Arrays.copyOf(candidates, n);
+    }
+
+    private int[] regexStrings(Pattern pattern) {
+        List<Integer> strings = new ArrayList<>();
+        for (int s = 0; s < normalized.length; s++) {
+            if (normalized[s] != null && pattern.matcher(snapshot.getString(s)).find()) strings.add(s);
+        }
+        return toArray(strings);
+    }
+
+    private int firstNode(int s, boolean description) {
+        int node = textStart[s] < textStart[s + 1] ? textNodes[textStart[s]] : -1;
+        if (description && descStart[s] < descStart[s + 1]) {
+            int d = descNodes[descStart[s]];
+            if (node < 0 || d < node) node = d;
+        }
+        return node;
+    }
+
+    private int lowerBound(String key) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(key) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Intersect ascending lists, starting from the shortest
+     */
+    private static int[] intersect(int[][] lists) {
+        int shortest = 0;
+        for (int i = 1; i < lists.length; i++) {
+            if (lists[i].length < lists[shortest].length) shortest = i;
+        }
+        int[] result = lists[shortest].clone();
+        int n = result.length;
+        for (int i = 0; i < lists.length && n > 0; i++) {
+            if (i == shortest) continue;
+            int kept = 0;
+            for (int r = 0; r < n; r++) {
+                if (Arrays.binarySearch(lists[i], result[r]) >= 0) result[kept++] = result[r];
+            }
+            n = kept;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * NFKC, case-folded, with whitespace runs collapsed to one space
+     */
+    @NonNull
+    static String normalize(@NonNull String value) {
+        String folded = Normalizer.normalize(value, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        StringBuilder out = new StringBuilder(folded.length());
+        boolean space = false;
+        for (int i = 0; i < folded.length(); i++) {
+            char c = folded.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = out.length() > 0;
+            } else {
+                if (space) out.append(' ');
+                out.append(c);
+                space = false;
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Split a normalized string into letter/digit words
+     */
+    @NonNull
+    static String[] tokenize(@NonNull String normalized) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean word = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                tokens.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    private static long trigram(String s, int at) {
+        return ((long) s.charAt(at) << 32) | ((long) s.charAt(at + 1) << 16) | s.charAt(at + 2);
+    }
+
+    private static <K> void add(Map<K, List<Integer>> map, K key, int s) {
+        List<Integer> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<>(2);
+            map.put(key, list);
+        }
+        list.add(s);
+    }
+
+    /**
+     * Add s unless it was the last one added, keeping lists ascending and distinct
+     */
+    private static <K> void addOnce(Map<K, List<Integer>> map, K key, int s) {
+        List<Integer> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<>(2);
+            map.put(key, list);
+        } else if (list.get(list.size() - 1) == s) {
+            return;
+        }
+        list.add(s);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
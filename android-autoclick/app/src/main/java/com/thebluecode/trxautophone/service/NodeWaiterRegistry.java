@@ -0,0 +1,186 @@
+package com.thebluecode.trxautophone.service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.thebluecode.trxautophone.utils.AccessibilityUtils;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Registry of pending "wait until this text appears" requests.
+ *
+ * Instead of polling the whole tree, each waiter is checked once against the
+ * current screen when registered and then only against the subtree reported
+ * by each content-change event, or a snapshot of the new window after a state change.
+ * A waiter resolves exactly once: found, timed out or cancelled.
+ */
+public class NodeWaiterRegistry {
+    private static final String TAG = "NodeWaiterRegistry";
+
+    /**
+     * Receives the outcome of a wait on the handler given at registration
+     */
+    public interface Listener {
+        void onWaitFinished(boolean found);
+    }
+
+    /**
+     * Handle to a pending wait
+     */
+    public final class Waiter {
+        private final String text;
+        private final Handler callbackHandler;
+        private final Listener listener;
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        private final Runnable timeout = () -> resolve(false);
+
+        private Waiter(String text, Handler callbackHandler, Listener listener) {
+            this.text = text;
+            this.callbackHandler = callbackHandler;
+            this.listener = listener;
+        }
+
+        /**
+         * Drop the wait without notifying the listener
+         */
+        public void cancel() {
+            if (finished.compareAndSet(false, true)) {
+                waiters.remove(this);
+                eventHandler.removeCallbacks(timeout);
+                updateDemand();
+            }
+        }
+
+        public boolean isFinished() {
+            return finished.get();
+        }
+
+        private void resolve(boolean found) {
+            if (finished.compareAndSet(false, true)) {
+                waiters.remove(this);
+                eventHandler.removeCallbacks(timeout);
+                updateDemand();
+                callbackHandler.post(() -> listener.onWaitFinished(found));
+            }
+        }
+
+        private boolean matches(@Nullable AccessibilityNodeInfo root) {
+            AccessibilityNodeInfo node = AccessibilityUtils.findNodeByText(root, text);
+            if (node != null) {
+                node.recycle();
+                return true;
+            }
+            return false;
+        }
+
+        private boolean matches(@NonNull NodeSnapshot snapshot) {
+            return snapshot.findText(text) >= 0;
+        }
+    }
+
+    private final AutoClickAccessibilityService service;
+    private final Handler eventHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<Waiter> waiters = new CopyOnWriteArrayList<>();
+
+    NodeWaiterRegistry(@NonNull AutoClickAccessibilityService service) {
+        this.service = service;
+    }
+
+    /**
+     * Wait for a node with the exact text to appear
+     *
+     * @param callbackHandler handler the listener is invoked on
+     */
+    @NonNull
+    public Waiter register(@NonNull String text, long timeout,
+                           @NonNull Handler callbackHandler, @NonNull Listener listener) {
+        Waiter waiter = new Waiter(text, callbackHandler, listener);
+        waiters.add(waiter);
+        updateDemand();
+        eventHandler.postDelayed(waiter.timeout, Math.max(0, timeout));
+
+        // The node may already be on screen; check once before relying on events
+        NodeSnapshot snapshot = service.getSnapshotCache().get();
+        if (snapshot != null && waiter.matches(snapshot)) {
+            waiter.resolve(true);
+        }
+        return waiter;
+    }
+
+    public boolean hasWaiters() {
+        return !waiters.isEmpty();
+    }
+
+    /**
+     * Pending waits need content-change events to be delivered
+     */
+    private void updateDemand() {
+        service.getEventSubscription().setWaiting(!waiters.isEmpty());
+    }
+
+    /**
+     * Check pending waiters against the subtree a content-change event reports
+     */
+    void onWindowContentChanged(@NonNull AccessibilityEvent event) {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        AccessibilityNodeInfo source = event.getSource();
+        if (source == null) {
+            return;
+        }
+        try {
+            checkWaiters(source);
+        } finally {
+            source.recycle();
+        }
+    }
+
+    /**
+     * Check pending waiters against a snapshot of a newly shown window
+     */
+    void onWindowStateChanged(@NonNull AccessibilityEvent event) {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        // Captures the new window once; the executor reuses the snapshot
+        NodeSnapshot snapshot = service.getSnapshotCache().get();
+        if (snapshot == null) {
+            return;
+        }
+        for (Waiter waiter : waiters) {
+            if (waiter.matches(snapshot)) {
+                waiter.resolve(true);
+            }
+        }
+    }
+
+    private void checkWaiters(@NonNull AccessibilityNodeInfo subtree) {
+        for (Waiter waiter : waiters) {
+            try {
+                if (waiter.matches(subtree)) {
+                    waiter.resolve(true);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error checking waiter for: " + waiter.text, e);
+            }
+        }
+    }
+
+    /**
+     * Cancel every pending wait
+     */
+    public void cancelAll() {
+        for (Waiter waiter : waiters) {
+            waiter.cancel();
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.thebluecode.trxautophone.service;
+
+import android.graphics.Rect;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.thebluecode.trxautophone.utils.Constants;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Structural fingerprint of the active window: a hash over the class name,
+ * view id, coarse bounds and depth of every node. Text is left out, so a
+ * ticking counter or a typed character keeps the screen "the same".
+ *
+ * Node hashes are summed, so the hash of any subtree of a snapshot is the
+ * difference of two prefix sums, and a changed subtree can be swapped out
+ * without touching the rest. Content events are queued as they arrive;
+ * text-only changes are dropped right away and the others are applied on the
+ * next read by rehashing just the changed subtree live. When a change cannot
+ * be placed, the fingerprint is recomputed from a fresh snapshot.
+ */
+public class ScreenFingerprint {
+    private static final int TEXT_ONLY_CHANGES = AccessibilityEvent.CONTENT_CHANGE_TYPE_TEXT
+            | AccessibilityEvent.CONTENT_CHANGE_TYPE_CONTENT_DESCRIPTION
+            | AccessibilityEvent.CONTENT_CHANGE_TYPE_STATE_DESCRIPTION;
+
+    private final SnapshotCache snapshots;
+    // Structural changes not yet applied (event thread in, reader out)
+    private final ConcurrentLinkedQueue<AccessibilityEvent> pending = new ConcurrentLinkedQueue<>();
+    private volatile boolean stale = true;
+
+    // Base the incremental updates apply to (reader only)
+    private NodeSnapshot base;
+    private long[] prefix;
+    private final List<int[]> patched = new ArrayList<>();
+    private long value;
+    private long reads;
+    private long patches;
+    private long recomputes;
+
+    ScreenFingerprint(@NonNull SnapshotCache snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * The window changed as a whole (any thread)
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * Queue a content change for the next read (event thread)
+     */
+    void onContentChanged(@NonNull AccessibilityEvent event) {
+        int changes = event.getContentChangeTypes();
+        if (changes != 0 && (changes & ~TEXT_ONLY_CHANGES) == 0) {
+            return;
+        }
+        if (stale) {
+            return; // Recomputed from scratch anyway
+        }
+        if (pending.size() >= Constants.Limits.MAX_FINGERPRINT_PATCHES) {
+            stale = true;
+            return;
+        }
+        pending.add(AccessibilityEvent.obtain(event));
+    }
+
+    /**
+     * Fingerprint of the current screen, never 0. Free while no structural
+     * change arrived since the last read; 0 when there is no active window.
+     */
+    public synchronized long get() {
+        reads++;
+        if (!snapshots.isTracking()) {
+            stale = true; // Changes go unseen
+        }
+        AccessibilityEvent event;
+        while (!stale && (event = pending.poll()) != null) {
+            try {
+                if (!patch(event)) {
+                    stale = true;
+                }
+            } finally {
+                event.recycle();
+            }
+        }
+        if (stale) {
+            recompute();
+        }
+        return value;
+    }
+
+    /**
+     * Fingerprint of a snapshot, computed from scratch
+     */
+    public static long of(@NonNull NodeSnapshot snapshot) {
+        long sum = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            sum += hash(snapshot, i);
+        }
+        return nonZero(sum);
+    }
+
+    private void recompute() {
+        // Events queued from here on are applied to the new base
+        stale = true;
+        drainPending();
+        stale = false;
+        NodeSnapshot snapshot = snapshots.get();
+        patched.clear();
+        if (snapshot == null) {
+            base = null;
+            prefix = null;
+            value = 0;
+            stale = true;
+            return;
+        }
+        recomputes++;
+        long[] sums = new long[snapshot.size() + 1];
+        for (int i = 0; i < snapshot.size(); i++) {
+            sums[i + 1] = sums[i] + hash(snapshot, i);
+        }
+        base = snapshot;
+        prefix = sums;
+        value = nonZero(sums[snapshot.size()]);
+    }
+
+    /**
+     * Swap the hash of the event's source subtree for its live one
+     *
+     * @return false if the change could not be placed in the base snapshot
+     */
+    private boolean patch(AccessibilityEvent event) {
+        if (event.getWindowId() != base.getWindowId()) {
+            return true; // Another window
+        }
+        AccessibilityNodeInfo source = event.getSource();
+        if (source == null) {
+            return false;
+        }
+        try {
+            int index = locate(source);
+            if (index < 0) {
+                return false;
+            }
+            int end = base.getSubtreeEnd(index);
+            for (int[] range : patched) {
+                if (index < range[1] && range[0] < end) {
+                    return false; // Base no longer holds this subtree
+                }
+            }
+            long live = hashLive(source, base.getDepth(index));
+            if (live == Long.MIN_VALUE) {
+                return false;
+            }
+            value = nonZero(value - (prefix[end] - prefix[index]) + live);
+            patched.add(new int[] {index, end});
+            patches++;
+            return true;
+        } finally {
+            source.recycle();
+        }
+    }
+
+    /**
+     * The one base node with the source's class, view id and bounds, or -1
+     */
+    private int locate(AccessibilityNodeInfo source) {
+        CharSequence className = source.getClassName();
+        int classIndex = className != null ? base.indexOf(className.toString()) : NodeSnapshot.NO_STRING;
+        if (classIndex == NodeSnapshot.NO_STRING) {
+            return -1;
+        }
+        String viewId = source.getViewIdResourceName();
+        int viewIdIndex = viewId != null ? base.indexOf(viewId) : NodeSnapshot.NO_STRING;
+        if (viewId != null && viewIdIndex == NodeSnapshot.NO_STRING) {
+            return -1;
+        }
+        Rect rect = new Rect();
+        source.getBoundsInScreen(rect);
+        int found = -1;
+        for (int i = 0; i < base.size(); i++) {
+            if (base.getClassNameIndex(i) == classIndex && base.getViewIdIndex(i) == viewIdIndex
+                    && base.getLeft(i) == rect.left && base.getTop(i) == rect.top
+                    && base.getRight(i) == rect.right && base.getBottom(i) == rect.bottom) {
+                if (found >= 0) {
+                    return -1; // Ambiguous
+                }
+                found = i;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Hash of a live subtree, or Long.MIN_VALUE if it is too large to walk
+     */
+    private static long hashLive(AccessibilityNodeInfo root, int rootDepth) {
+        Rect rect = new Rect();
+        ArrayList<AccessibilityNodeInfo> stack = new ArrayList<>();
+        ArrayList<Integer> depths = new ArrayList<>();
+        stack.add(root);
+        depths.add(rootDepth);
+        long sum = 0;
+        int visited = 0;
+        try {
+            while (!stack.isEmpty()) {
+                AccessibilityNodeInfo node = stack.remove(stack.size() - 1);
+                int nodeDepth = depths.remove(depths.size() - 1);
+                try {
+                    if (++visited > Constants.Limits.MAX_FINGERPRINT_PATCH_NODES) {
+                        return Long.MIN_VALUE;
+                    }
+                    node.getBoundsInScreen(rect);
+                    sum += hash(string(node.getClassName()), string(node.getViewIdResourceName()),
+                            rect.left, rect.top, rect.right, rect.bottom, nodeDepth);
+                    for (int i = 0; i < node.getChildCount(); i++) {
+                        AccessibilityNodeInfo child = node.getChild(i);
+                        if (child != null) {
+                            stack.add(child);
+                            depths.add(nodeDepth + 1);
+                        }
+                    }
+                } finally {
+                    if (node != root) {
+                        node.recycle();
+                    }
+                }
+            }
+            return sum;
+        } finally {
+            for (AccessibilityNodeInfo node : stack) {
+                if (node != root) {
+                    node.recycle();
+                }
+            }
+        }
+    }
+
+    private void drainPending() {
+        AccessibilityEvent event;
+        while ((event = pending.poll()) != null) {
+            event.recycle();
+        }
+    }
+
+    private static long hash(NodeSnapshot snapshot, int i) {
+        return hash(snapshot.getClassName(i), snapshot.getViewId(i),
+                snapshot.getLeft(i), snapshot.getTop(i), snapshot.getRight(i), snapshot.getBottom(i),
+                snapshot.getDepth(i));
+    }
+
+    private static long hash(@Nullable String className, @Nullable String viewId,
+                             int left, int top, int right, int bottom, int depth) {
+        int q = Constants.Limits.FINGERPRINT_BOUNDS_QUANTUM;
+        long h = className != null ? className.hashCode() : 0;
+        h = h * 31 + (viewId != null ? viewId.hashCode() : 0);
+        h = h * 31 + Math.floorDiv(left, q);
+        h = h * 31 + Math.floorDiv(top, q);
+        h = h * 31 + Math.floorDiv(right, q);
+        h = h * 31 + Math.floorDiv(bottom, q);
+        h = h * 31 + depth;
+        return mix(h);
+    }
+
+    /**
+     * SplitMix64 finalizer, so summed node hashes do not cancel out
+     */
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    private static long nonZero(long h) {
+        return h != 0 ? h : 1;
+    }
+
+    @Nullable
+    private static String string(@Nullable CharSequence value) {
+        return value != null ? value.toString() : null;
+    }
+
+    /**
+     * Reads served so far
+     */
+    public synchronized long getReadCount() {
+        return reads;
+    }
+
+    /**
+     * Content changes applied by rehashing one subtree
+     */
+    public synchronized long getPatchCount() {
+        return patches;
+    }
+
+    /**
+     * Times the fingerprint was computed from a fresh snapshot
+     */
+    public synchronized long getRecomputeCount() {
+        return recomputes;
+    }
+}
@@ -0,0 +1,93 @@
+package com.thebluecode.trxautophone.service;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Detects when the screen has gone quiet after an action.
+ *
+ * The service stamps the time of every window content or state change; a
+ * settle wait completes once no such event has arrived for the quiet window,
+ * or at its deadline, whichever comes first. Checks are only scheduled at the
+ * earliest time the screen could be settled, so an idle screen costs one
+ * timer and a busy one a timer per quiet-window extension.
+ */
+public class ScreenSettleDetector {
+
+    /**
+     * Handle to a pending settle wait. Not thread-safe; use it from the
+     * handler the wait was started on.
+     */
+    public final class SettleWait implements Runnable {
+        private final Handler handler;
+        private final long quietWindow;
+        private final long deadline;
+        private final long startTime;
+        private final Runnable onSettled;
+        private boolean finished;
+
+        private SettleWait(Handler handler, long quietWindow, long deadline, Runnable onSettled) {
+            this.handler = handler;
+            this.quietWindow = quietWindow;
+            this.deadline = deadline;
+            this.startTime = SystemClock.uptimeMillis();
+            this.onSettled = onSettled;
+        }
+
+        @Override
+        public void run() {
+            if (finished) {
+                return;
+            }
+            long now = SystemClock.uptimeMillis();
+            // Events from before the wait started say nothing about the action's effect
+            long quietSince = Math.max(lastEventTime, startTime);
+            long settleAt = quietSince + quietWindow;
+            if (now >= settleAt || now >= deadline) {
+                finished = true;
+                onSettled.run();
+            } else {
+                handler.postAtTime(this, Math.min(settleAt, deadline));
+            }
+        }
+
+        public void cancel() {
+            finished = true;
+            handler.removeCallbacks(this);
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+    }
+
+    private volatile long lastEventTime;
+
+    /**
+     * Record a window content or state change (any thread)
+     */
+    void onScreenEvent() {
+        lastEventTime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Uptime of the last screen change seen
+     */
+    public long getLastEventTime() {
+        return lastEventTime;
+    }
+
+    /**
+     * Run {@code onSettled} on {@code handler} once the screen has been quiet
+     * for {@code quietWindow} ms, or at {@code deadline} (uptime) at the latest
+     */
+    @NonNull
+    public SettleWait awaitSettle(@NonNull Handler handler, long quietWindow, long deadline,
+                                  @NonNull Runnable onSettled) {
+        SettleWait wait = new SettleWait(handler, quietWindow, deadline, onSettled);
+        handler.postAtTime(wait, Math.min(wait.startTime + quietWindow, deadline));
+        return wait;
+    }
+}
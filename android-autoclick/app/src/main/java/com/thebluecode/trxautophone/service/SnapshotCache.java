@@ -0,0 +1,443 @@
+package com.thebluecode.trxautophone.service;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.thebluecode.trxautophone.utils.Constants;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the latest {@link NodeSnapshot} of the active window.
+ *
+ * The service invalidates it on every window state, content or focus change;
+ * the executor invalidates it after each action it performs, since events
+ * arrive batched. A snapshot is captured lazily on the first lookup after an
+ * invalidation and reused until the next one, so consecutive lookups on an
+ * unchanged screen cost no IPC beyond fetching the node acted on. Nodes are
+ * fetched through a {@link NodeRetriever}, which picks the prefetch strategy
+ * and records the cost of each capture and fetch.
+ *
+ * Lookups with a {@link WindowTopology.Target} search the other windows on
+ * screen too, front to back, each from its own snapshot of the same
+ * generation.
+ */
+public class SnapshotCache {
+    private static final String TAG = "SnapshotCache";
+
+    /**
+     * Finds a node in a snapshot
+     */
+    public interface Lookup {
+        /**
+         * @return node index, or -1 if there is no match
+         */
+        int find(@NonNull NodeSnapshot snapshot);
+    }
+
+    private final NodeRetriever retriever;
+    private final WindowTopology topology;
+    private final AtomicLong generation = new AtomicLong();
+    private final int maxNodes;
+    private volatile boolean tracking = true;
+    private NodeSnapshot current;
+    // Snapshots of windows other than the active one, all of one generation
+    private final SparseArray<NodeSnapshot> windowSnapshots = new SparseArray<>();
+    private long captures;
+    private long reuses;
+    private long staleAcquires;
+
+    SnapshotCache(@NonNull NodeRetriever retriever, @NonNull WindowTopology topology) {
+        this(retriever, topology, Constants.Limits.MAX_SNAPSHOT_NODES);
+    }
+
+    SnapshotCache(@NonNull NodeRetriever retriever, @NonNull WindowTopology topology, int maxNodes) {
+        this.retriever = retriever;
+        this.topology = topology;
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * Mark the current snapshot out of date (any thread)
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Whether the service receives the window events that invalidate the
+     * snapshot. Without them every lookup captures the window anew.
+     */
+    void setTracking(boolean tracking) {
+        if (tracking && !this.tracking) {
+            invalidate(); // Changes went unseen meanwhile
+        }
+        this.tracking = tracking;
+    }
+
+    /**
+     * Whether window events keep the snapshot current
+     */
+    boolean isTracking() {
+        return tracking;
+    }
+
+    /**
+     * Current invalidation generation; changes whenever the screen may have changed
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * The snapshot of the current screen, captured now if the last one is out
+     * of date. Null when there is no active window.
+     *
+     * The capture runs outside the lock, so lookups on a current snapshot
+     * never wait behind one; a capture is published unless one of a newer
+     * generation got there first.
+     */
+    @Nullable
+    public NodeSnapshot get() {
+        // Read before capturing: a change during the capture invalidates its result
+        long gen = generation.get();
+        synchronized (this) {
+            if (tracking && current != null && current.getGeneration() == gen) {
+                reuses++;
+                return current;
+            }
+        }
+        NodeSnapshot snapshot = capture(null, gen);
+        if (snapshot == null) {
+            return null;
+        }
+        synchronized (this) {
+            captures++;
+            if (current == null || current.getGeneration() <= gen) {
+                current = snapshot;
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * The snapshot of a given window, captured now if the last one is out of
+     * date. Null when the window is gone. Captures outside the lock like
+     * {@link #get()}.
+     */
+    @Nullable
+    public NodeSnapshot get(@NonNull WindowTopology.Window window) {
+        long gen = generation.get();
+        synchronized (this) {
+            if (tracking && current != null && current.getGeneration() == gen
+                    && current.getWindowId() == window.getId()) {
+                reuses++;
+                return current;
+            }
+            NodeSnapshot snapshot = windowSnapshots.get(window.getId());
+            if (tracking && snapshot != null && snapshot.getGeneration() == gen) {
+                reuses++;
+                return snapshot;
+            }
+        }
+
+        NodeSnapshot snapshot = capture(window, gen);
+        if (snapshot == null) {
+            return null;
+        }
+        synchronized (this) {
+            captures++;
+            // All window snapshots are of one generation; an older set is dropped
+            if (windowSnapshots.size() > 0) {
+                long held = windowSnapshots.valueAt(0).getGeneration();
+                if (held > gen) {
+                    return snapshot;
+                }
+                if (held < gen) {
+                    windowSnapshots.clear();
+                }
+            }
+            windowSnapshots.put(window.getId(), snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Capture a window, or the active one if {@code window} is null (no lock held)
+     */
+    @Nullable
+    private NodeSnapshot capture(@Nullable WindowTopology.Window window, long gen) {
+        NodeRetriever.Trace trace = retriever.begin(NodeRetriever.QueryType.SNAPSHOT);
+        AccessibilityNodeInfo root = window != null
+                ? retriever.getRoot(trace, window.getInfo()) : retriever.getRoot(trace);
+        if (root == null) {
+            trace.end();
+            return null;
+        }
+        try {
+            NodeSnapshot snapshot = NodeSnapshot.capture(root, gen, maxNodes, trace);
+            if (snapshot.isTruncated()) {
+                Log.w(TAG, "Snapshot truncated at " + maxNodes + " nodes");
+            }
+            return snapshot;
+        } catch (Exception e) {
+            Log.e(TAG, window != null ? "Error capturing snapshot of window " + window.getId()
+                    : "Error capturing node snapshot", e);
+            return null;
+        } finally {
+            root.recycle();
+            trace.end();
+        }
+    }
+
+    /**
+     * Find a node in the current snapshot and fetch it live. If the live tree
+     * no longer matches the snapshot, the snapshot is recaptured and the
+     * lookup run once more. The caller owns the returned node.
+     */
+    @Nullable
+    public AccessibilityNodeInfo find(@NonNull Lookup lookup) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            NodeSnapshot snapshot = get();
+            if (snapshot == null) {
+                return null;
+            }
+            int index = lookup.find(snapshot);
+            if (index < 0) {
+                return null;
+            }
+            AccessibilityNodeInfo node = acquire(snapshot, index);
+            if (node != null) {
+                return node;
+            }
+            invalidate(snapshot);
+        }
+        return null;
+    }
+
+    /**
+     * Find a node in the windows a target may be in, front to back, and fetch
+     * it live. A null target searches the active window only. The caller owns
+     * the returned node.
+     */
+    @Nullable
+    public AccessibilityNodeInfo find(@NonNull Lookup lookup, @Nullable WindowTopology.Target target) {
+        if (target == null) {
+            return find(lookup);
+        }
+        for (WindowTopology.Window window : topology.select(target)) {
+            for (int attempt = 0; attempt < 2; attempt++) {
+                NodeSnapshot snapshot = get(window);
+                if (snapshot == null) {
+                    break;
+                }
+                int index = lookup.find(snapshot);
+                if (index < 0) {
+                    break;
+                }
+                AccessibilityNodeInfo node = acquire(window, snapshot, index);
+                if (node != null) {
+                    return node;
+                }
+                invalidate(snapshot);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether any window a target may be in has a matching node, judged from
+     * snapshots alone. A null target looks at the active window only.
+     */
+    public boolean contains(@NonNull Lookup lookup, @Nullable WindowTopology.Target target) {
+        if (target == null) {
+            NodeSnapshot snapshot = get();
+            return snapshot != null && lookup.find(snapshot) >= 0;
+        }
+        for (WindowTopology.Window window : topology.select(target)) {
+            NodeSnapshot snapshot = get(window);
+            if (snapshot != null && lookup.find(snapshot) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the first node matching a selector and fetch it live. Without a
+     * current snapshot, a selector with an exact view id is resolved by a
+     * single view id query instead of capturing the window.
+     */
+    @Nullable
+    public AccessibilityNodeInfo find(@NonNull NodeSelector selector) {
+        if (selector.hasViewIdFastPath() && peek() == null) {
+            NodeRetriever.Trace trace = retriever.begin(NodeRetriever.QueryType.SEARCH);
+            AccessibilityNodeInfo root = retriever.getRoot(trace);
+            if (root == null) {
+                trace.end();
+                return null;
+            }
+            long start = SystemClock.elapsedRealtimeNanos();
+            try {
+                return selector.findByViewId(root);
+            } finally {
+                trace.countFetch(start);
+                root.recycle();
+                trace.end();
+            }
+        }
+        return find(selector::find);
+    }
+
+    /**
+     * Find the first node matching a selector in the windows a target may be
+     * in, front to back. A null target searches the active window only.
+     */
+    @Nullable
+    public AccessibilityNodeInfo find(@NonNull NodeSelector selector, @Nullable WindowTopology.Target target) {
+        return target == null ? find(selector) : find(selector::find, target);
+    }
+
+    /**
+     * The current snapshot if it is still valid, without capturing one
+     */
+    @Nullable
+    public synchronized NodeSnapshot peek() {
+        return tracking && current != null && current.getGeneration() == generation.get() ? current : null;
+    }
+
+    /**
+     * Fetch the live node behind a snapshot index. The caller owns the
+     * returned node.
+     */
+    @Nullable
+    public AccessibilityNodeInfo acquire(@NonNull NodeSnapshot snapshot, int index) {
+        NodeRetriever.Trace trace = retriever.begin(NodeRetriever.QueryType.NODE);
+        AccessibilityNodeInfo root = retriever.getRoot(trace);
+        if (root == null) {
+            trace.end();
+            return null;
+        }
+        try {
+            return snapshot.acquire(root, index, trace);
+        } finally {
+            root.recycle();
+            trace.end();
+        }
+    }
+
+    /**
+     * Fetch the live node behind a snapshot index of a given window. The
+     * caller owns the returned node.
+     */
+    @Nullable
+    public AccessibilityNodeInfo acquire(@NonNull WindowTopology.Window window,
+                                         @NonNull NodeSnapshot snapshot, int index) {
+        NodeRetriever.Trace trace = retriever.begin(NodeRetriever.QueryType.NODE);
+        AccessibilityNodeInfo root = retriever.getRoot(trace, window.getInfo());
+        if (root == null) {
+            trace.end();
+            return null;
+        }
+        try {
+            return snapshot.acquire(root, index, trace);
+        } finally {
+            root.recycle();
+            trace.end();
+        }
+    }
+
+    /**
+     * Fetch the live node at a child path of the active window, without a
+     * snapshot. Null if the path no longer leads anywhere. The caller owns
+     * the returned node.
+     */
+    @Nullable
+    public AccessibilityNodeInfo acquirePath(@NonNull int[] path) {
+        NodeRetriever.Trace trace = retriever.begin(NodeRetriever.QueryType.NODE);
+        AccessibilityNodeInfo root = retriever.getRoot(trace);
+        if (root == null) {
+            trace.end();
+            return null;
+        }
+        AccessibilityNodeInfo node = root;
+        try {
+            for (int childIndex : path) {
+                AccessibilityNodeInfo child = childIndex < node.getChildCount()
+                        ? trace.getChild(node, childIndex) : null;
+                if (node != root) {
+                    node.recycle();
+                }
+                node = child;
+                if (node == null) {
+                    return null;
+                }
+            }
+            return node == root ? AccessibilityNodeInfo.obtain(root) : node;
+        } finally {
+            root.recycle();
+            trace.end();
+        }
+    }
+
+    /**
+     * Fetch the live nodes with a full view id in the active window, without
+     * a snapshot. The caller owns the returned nodes.
+     */
+    @NonNull
+    public List<AccessibilityNodeInfo> findByViewId(@NonNull String viewId) {
+        NodeRetriever.Trace trace = retriever.begin(NodeRetriever.QueryType.SEARCH);
+        AccessibilityNodeInfo root = retriever.getRoot(trace);
+        if (root == null) {
+            trace.end();
+            return Collections.emptyList();
+        }
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            List<AccessibilityNodeInfo> nodes = root.findAccessibilityNodeInfosByViewId(viewId);
+            trace.countFetch(start);
+            return nodes != null ? nodes : Collections.<AccessibilityNodeInfo>emptyList();
+        } finally {
+            root.recycle();
+            trace.end();
+        }
+    }
+
+    /**
+     * Invalidate only if {@code snapshot} is still the current one
+     */
+    private void invalidate(NodeSnapshot snapshot) {
+        synchronized (this) {
+            staleAcquires++;
+        }
+        generation.compareAndSet(snapshot.getGeneration(), snapshot.getGeneration() + 1);
+    }
+
+    /**
+     * Snapshots captured so far
+     */
+    public synchronized long getCaptureCount() {
+        return captures;
+    }
+
+    /**
+     * Lookups served from an existing snapshot
+     */
+    public synchronized long getReuseCount() {
+        return reuses;
+    }
+
+    /**
+     * Live fetches that found the screen changed since the snapshot
+     */
+    public synchronized long getStaleCount() {
+        return staleAcquires;
+    }
+}
@@ -0,0 +1,283 @@
+package com.thebluecode.trxautophone.service;
+
+import android.util.Log;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityWindowInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cached list of the interactive windows on screen, front to back.
+ *
+ * The list is enumerated with {@code getWindows()} only on the first lookup
+ * after the service hears a windows-changed event, so steps on a stable
+ * window layout never re-enumerate. Package names are learned from window
+ * state events and, for windows none was seen for, from the window root once
+ * per window. Windows of this app and accessibility overlays are left out.
+ */
+public class WindowTopology {
+    private static final String TAG = "WindowTopology";
+
+    /**
+     * A window on screen at the last refresh
+     */
+    public static final class Window {
+        private final AccessibilityWindowInfo info;
+        private final int id;
+        private final int layer;
+        private final int type;
+        private final boolean active;
+        private final String packageName;
+
+        private Window(AccessibilityWindowInfo info, String packageName) {
+            this.info = info;
+            this.id = info.getId();
+            this.layer = info.getLayer();
+            this.type = info.getType();
+            this.active = info.isActive();
+            this.packageName = packageName;
+        }
+
+        public int getId() { return id; }
+        public int getLayer() { return layer; }
+
+        /**
+         * One of the {@code AccessibilityWindowInfo.TYPE_*} constants
+         */
+        public int getType() { return type; }
+
+        public boolean isActive() { return active; }
+        @Nullable public String getPackageName() { return packageName; }
+
+        @NonNull
+        AccessibilityWindowInfo getInfo() { return info; }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Window{id=" + id + ", layer=" + layer + ", type=" + type
+                    + ", package=" + packageName + (active ? ", active" : "") + "}";
+        }
+    }
+
+    /**
+     * Which windows a step's target is searched in
+     */
+    public static final class Target {
+        public enum Scope {
+            /** The active window only */
+            ACTIVE,
+            /** Every window, front to back */
+            ANY,
+            /** Application windows, including dialogs and split-screen halves */
+            APPLICATION,
+            /** The input method window */
+            INPUT_METHOD,
+            /** System windows such as the status bar or system dialogs */
+            SYSTEM
+        }
+
+        private final Scope scope;
+        private final String packageName;
+
+        private Target(Scope scope, String packageName) {
+            this.scope = scope;
+            this.packageName = packageName;
+        }
+
+        /**
+         * Read the optional {@code "window"} scope and {@code "windowPackage"}
+         * of a step. Null when neither is set: the active window is searched.
+         *
+         * @throws IllegalArgumentException for an unknown scope
+         */
+        @Nullable
+        public static Target fromJson(@NonNull JSONObject data) {
+            String scope = data.optString("window", "");
+            String packageName = data.optString("windowPackage", "");
+            if (scope.isEmpty() && packageName.isEmpty()) {
+                return null;
+            }
+            Scope parsed;
+            switch (scope.toLowerCase(Locale.ROOT)) {
+                case "":
+                case "any":
+                    parsed = Scope.ANY;
+                    break;
+                case "active":
+                    parsed = Scope.ACTIVE;
+                    break;
+                case "application":
+                case "app":
+                    parsed = Scope.APPLICATION;
+                    break;
+                case "ime":
+                case "input_method":
+                    parsed = Scope.INPUT_METHOD;
+                    break;
+                case "system":
+                    parsed = Scope.SYSTEM;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown window scope: " + scope);
+            }
+            return new Target(parsed, packageName.isEmpty() ? null : packageName);
+        }
+
+        /**
+         * Whether a step's target may be in this window
+         */
+        public boolean accepts(@NonNull Window window) {
+            if (packageName != null && !packageName.equals(window.getPackageName())) {
+                return false;
+            }
+            switch (scope) {
+                case ACTIVE:
+                    return window.isActive();
+                case APPLICATION:
+                    return window.getType() == AccessibilityWindowInfo.TYPE_APPLICATION;
+                case INPUT_METHOD:
+                    return window.getType() == AccessibilityWindowInfo.TYPE_INPUT_METHOD;
+                case SYSTEM:
+                    return window.getType() == AccessibilityWindowInfo.TYPE_SYSTEM;
+                default:
+                    return true;
+            }
+        }
+
+        @NonNull public Scope getScope() { return scope; }
+        @Nullable public String getPackageName() { return packageName; }
+    }
+
+    private final AutoClickAccessibilityService service;
+    // Written from the event thread, read while refreshing
+    private final Map<Integer, String> packages = new ConcurrentHashMap<>();
+    private volatile boolean dirty = true;
+    private List<Window> windows = Collections.emptyList();
+    private long refreshes;
+
+    WindowTopology(@NonNull AutoClickAccessibilityService service) {
+        this.service = service;
+    }
+
+    /**
+     * Windows were added, removed or changed (any thread)
+     */
+    public void invalidate() {
+        dirty = true;
+    }
+
+    /**
+     * Remember the package of a window seen in an event
+     */
+    void notePackage(int windowId, @Nullable CharSequence packageName) {
+        if (windowId < 0 || packageName == null) {
+            return;
+        }
+        String name = packageName.toString();
+        if (!name.equals(packages.put(windowId, name))) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Windows on screen, front to back, re-enumerated only after a change
+     */
+    @NonNull
+    public synchronized List<Window> getWindows() {
+        if (dirty) {
+            // Cleared first: a change during the refresh marks it dirty again
+            dirty = false;
+            refresh();
+        }
+        return windows;
+    }
+
+    /**
+     * Windows a target may be in, front to back
+     */
+    @NonNull
+    public List<Window> select(@NonNull Target target) {
+        List<Window> all = getWindows();
+        List<Window> selected = new ArrayList<>(all.size());
+        for (Window window : all) {
+            if (target.accepts(window)) {
+                selected.add(window);
+            }
+        }
+        return selected;
+    }
+
+    private void refresh() {
+        List<AccessibilityWindowInfo> infos;
+        try {
+            infos = service.getWindows();
+        } catch (Exception e) {
+            Log.e(TAG, "Error enumerating windows", e);
+            dirty = true;
+            return;
+        }
+        refreshes++;
+
+        String ownPackage = service.getPackageName();
+        Set<Integer> seen = new HashSet<>();
+        List<Window> list = new ArrayList<>(infos.size());
+        for (AccessibilityWindowInfo info : infos) {
+            if (info.getType() == AccessibilityWindowInfo.TYPE_ACCESSIBILITY_OVERLAY) {
+                continue;
+            }
+            seen.add(info.getId());
+            String packageName = packages.get(info.getId());
+            if (packageName == null) {
+                packageName = packageOf(info);
+                if (packageName != null) {
+                    packages.put(info.getId(), packageName);
+                }
+            }
+            if (ownPackage.equals(packageName)) {
+                continue;
+            }
+            list.add(new Window(info, packageName));
+        }
+        // Front to back
+        Collections.sort(list, (a, b) -> Integer.compare(b.getLayer(), a.getLayer()));
+
+        // Forget the packages of windows that are gone
+        packages.keySet().retainAll(seen);
+        windows = Collections.unmodifiableList(list);
+        Log.d(TAG, "Windows: " + windows);
+    }
+
+    @Nullable
+    private static String packageOf(AccessibilityWindowInfo info) {
+        AccessibilityNodeInfo root = info.getRoot();
+        if (root == null) {
+            return null;
+        }
+        try {
+            CharSequence packageName = root.getPackageName();
+            return packageName != null ? packageName.toString() : null;
+        } finally {
+            root.recycle();
+        }
+    }
+
+    /**
+     * Times the window list was enumerated
+     */
+    public synchronized long getRefreshCount() {
+        return refreshes;
+    }
+}
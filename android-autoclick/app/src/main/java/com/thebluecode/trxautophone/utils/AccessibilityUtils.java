@@ -11,6 +11,8 @@ import android.view.accessibility.AccessibilityNodeInfo;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.thebluecode.trxautophone.service.SnapshotCache;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
@@ -23,7 +25,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
 public class AccessibilityUtils {
     private static final String TAG = "AccessibilityUtils";
-    private static final int GESTURE_COMPLETION_TIMEOUT = 5000; // 5 seconds
+    private static final long GESTURE_COMPLETION_TIMEOUT = Constants.Limits.GESTURE_COMPLETION_TIMEOUT;
 
     private AccessibilityUtils() {
         // Private constructor to prevent instantiation
@@ -52,6 +54,17 @@ public class AccessibilityUtils {
         return null;
     }
 
+    /**
+     * Find a node by exact text match in the screen snapshot
+     */
+    @Nullable
+    public static AccessibilityNodeInfo findNodeByText(@NonNull SnapshotCache snapshots, @NonNull String text) {
+        if (text.isEmpty()) {
+            return null;
+        }
+        return snapshots.find(snapshot -> snapshot.findText(text));
+    }
+
     /**
      * Find a node by content description
      */
@@ -79,6 +92,17 @@ public class AccessibilityUtils {
         return null;
     }
 
+    /**
+     * Find a node by content description in the screen snapshot
+     */
+    @Nullable
+    public static AccessibilityNodeInfo findNodeByDescription(@NonNull SnapshotCache snapshots, @NonNull String description) {
+        if (description.isEmpty()) {
+            return null;
+        }
+        return snapshots.find(snapshot -> snapshot.findDescription(description));
+    }
+
     /**
      * Find a clickable node at specific coordinates
      */
@@ -111,6 +135,14 @@ public class AccessibilityUtils {
         return null;
     }
 
+    /**
+     * Find a clickable node at specific coordinates in the screen snapshot
+     */
+    @Nullable
+    public static AccessibilityNodeInfo findClickableNodeAtLocation(@NonNull SnapshotCache snapshots, float x, float y) {
+        return snapshots.find(snapshot -> snapshot.findClickableAt(x, y));
+    }
+
     /**
      * Perform a click at specific coordinates
      */
@@ -401,23 +433,38 @@ public class AccessibilityUtils {
     @NonNull
     public static List<AccessibilityNodeInfo> findAllClickableNodes(@Nullable AccessibilityNodeInfo root) {
         List<AccessibilityNodeInfo> clickables = new ArrayList<>();
-        if (root == null) {
-            return clickables;
+        if (root != null) {
+            collectClickableNodes(root, clickables);
         }
+        return clickables;
+    }
 
-        if (root.isClickable()) {
-            clickables.add(root);
+    /**
+     * Add clickable nodes to one shared list; non-clickable nodes are recycled
+     */
+    private static void collectClickableNodes(@NonNull AccessibilityNodeInfo node,
+                                              @NonNull List<AccessibilityNodeInfo> clickables) {
+        if (node.isClickable()) {
+            clickables.add(node);
         }
-
-        for (int i = 0; i < root.getChildCount(); i++) {
-            AccessibilityNodeInfo child = root.getChild(i);
+        for (int i = 0; i < node.getChildCount(); i++) {
+            AccessibilityNodeInfo child = node.getChild(i);
             if (child != null) {
-                clickables.addAll(findAllClickableNodes(child));
-                child.recycle();
+                collectClickableNodes(child, clickables);
+                if (!child.isClickable()) {
+                    child.recycle();
+                }
             }
         }
+    }
 
-        return clickables;
+    /**
+     * Find the clickable node under, or else closest to, specific coordinates
+     * in the screen snapshot
+     */
+    @Nullable
+    public static AccessibilityNodeInfo findNearestClickableNode(@NonNull SnapshotCache snapshots, float x, float y) {
+        return snapshots.find(snapshot -> snapshot.getClickableGrid().findNearest(x, y));
     }
 
     /**
@@ -14,7 +14,7 @@ public final class Constants {
     public static final class Database {
         public static final String NAME = "autoclick.db";
         public static final String BACKUP_SUFFIX = ".backup";
-        public static final int VERSION = 1;
+        public static final int VERSION = 2;
         public static final long MAX_DATABASE_SIZE = 50 * 1024 * 1024; // 50MB
     }
 
@@ -29,6 +29,7 @@ public final class Constants {
         public static final int TASK_NOTIFICATION_ID = 1002;
         public static final int ERROR_NOTIFICATION_ID = 1003;
         public static final int PROGRESS_NOTIFICATION_ID = 1004;
+        public static final int RESUME_NOTIFICATION_ID = 1005;
     }
 
     /**
@@ -48,6 +49,10 @@ public final class Constants {
         public static final String KEY_CUSTOM_PRESETS = "custom_presets";
         public static final String KEY_EXECUTION_LOG_ENABLED = "execution_log_enabled";
         public static final String KEY_EXECUTION_LOG_MAX_SIZE = "execution_log_max_size";
+        public static final String KEY_DRIFT_FREE_SCHEDULING = "drift_free_scheduling";
+        public static final String KEY_GESTURE_COALESCING = "gesture_coalescing";
+        public static final String KEY_WAIT_FOR_IDLE = "wait_for_idle";
+        public static final String KEY_IDLE_WINDOW = "idle_window";
     }
 
     /**
@@ -58,6 +63,8 @@ public final class Constants {
         public static final String ACTION_STOP_TASK = "com.thebluecode.trxautophone.STOP_TASK";
         public static final String ACTION_PAUSE_TASK = "com.thebluecode.trxautophone.PAUSE_TASK";
         public static final String ACTION_RESUME_TASK = "com.thebluecode.trxautophone.RESUME_TASK";
+        public static final String ACTION_RESUME_CHECKPOINT = "com.thebluecode.trxautophone.RESUME_CHECKPOINT";
+        public static final String ACTION_DISCARD_CHECKPOINT = "com.thebluecode.trxautophone.DISCARD_CHECKPOINT";
     }
 
     /**
@@ -88,6 +95,34 @@ public final class Constants {
         public static final long DEFAULT_SWIPE_DURATION = 300; // 0.3 seconds
         public static final int MAX_RETRIES = 3;
         public static final long RETRY_DELAY = 1000; // 1 second
+        public static final long MAX_RETRY_DELAY = 30000; // Cap for exponential backoff
+        public static final long MAX_COALESCE_GAP = 100; // Max step delay fused into one gesture
+        public static final double MAX_BURST_RATE = 100; // clicks per second
+        public static final double MIN_BURST_RATE = 1; // clicks per second
+        public static final long MIN_BURST_TAP_INTERVAL = 10; // ms between burst taps
+        public static final long BURST_BATCH_WINDOW = 250; // ms of taps per burst gesture
+        public static final int MAX_BURST_CANCELLATIONS = 20;
+        public static final int MAX_QUEUE_DEPTH = 20; // Runs waiting behind the active one
+        public static final long CHECKPOINT_INTERVAL = 1000; // Max ms between journal writes
+        public static final long MAX_JOURNAL_SIZE = 64 * 1024; // Compacted beyond this
+        public static final long SPECULATIVE_LOOKUP_LEAD = 200; // ms before a step its node is looked up
+        public static final long GESTURE_COMPLETION_TIMEOUT = 5000; // Past the gesture's own duration
+        public static final long WATCHDOG_GRACE = 2000; // Past a delay or wait step's own timeout
+        public static final int EVENT_RING_CAPACITY = 1024; // Execution events buffered between drains
+        public static final long EVENT_DRAIN_INTERVAL = 0; // ms between callback deliveries, 0 = every frame
+        public static final long NOTIFICATION_UPDATE_INTERVAL = 500; // Min ms between progress notification posts
+        public static final int MAX_SNAPSHOT_NODES = 5000; // Nodes copied per screen snapshot
+        public static final int HIT_GRID_CELL_SIZE = 96; // px per side of a clickable hit-test cell
+        public static final long IDLE_EVENT_TIMEOUT = 500; // Event batching while nothing needs the screen
+        public static final long MIN_EVENT_TIMEOUT = 20; // Event batching bounds while a run reads the screen
+        public static final long MAX_EVENT_TIMEOUT = 100;
+        public static final long IPC_FETCH_THRESHOLD_NANOS = 150_000; // Node fetches slower than this count as a binder round trip
+        public static final int FINGERPRINT_BOUNDS_QUANTUM = 16; // px grid node bounds are snapped to when fingerprinting
+        public static final int MAX_FINGERPRINT_PATCHES = 32; // Queued content changes before a full recompute
+        public static final int MAX_FINGERPRINT_PATCH_NODES = 500; // Largest subtree rehashed live
+        public static final int MAX_LOCATION_MEMOS = 512; // Remembered TEXT_SEARCH target locations
+        public static final int NODE_QUERY_THREADS = 2; // Workers running node queries off the execution thread
+        public static final int NODE_QUERY_QUEUE = 8; // Queued node queries before callers run them inline
     }
 
     /**
@@ -120,6 +155,8 @@ public final class Constants {
         public static final String TASK_EXTENSION = ".task";
         public static final String JSON_EXTENSION = ".json";
         public static final String LOG_EXTENSION = ".log";
+        public static final String EXECUTION_JOURNAL = "execution.journal";
+        public static final String LAST_RUN_TRACE = "last_run.trace";
         public static final String MIME_TYPE_JSON = "application/json";
         public static final String MIME_TYPE_TEXT = "text/plain";
     }
@@ -144,6 +181,16 @@ public final class Constants {
         public static final long STEP_DELAY = 500;
         public static final long LONG_PRESS_DURATION = 500;
         public static final long SWIPE_DURATION = 300;
+        public static final long DEFAULT_TAP_DURATION = 100;
+        public static final long DEFAULT_LONG_PRESS_DURATION = LONG_PRESS_DURATION;
+        public static final long DEFAULT_SWIPE_DURATION = SWIPE_DURATION;
+        public static final long DEFAULT_DELAY = Limits.DEFAULT_DELAY;
+        public static final double BURST_RATE = 10; // clicks per second
+        public static final long BURST_DURATION = 10000;
+        public static final long BURST_TAP_DURATION = 5;
+        public static final long WAIT_TIMEOUT = 10000;
+        public static final long IDLE_WINDOW = 300;
+        public static final int WATCHDOG_RETRIES = 1; // Re-dispatches of a gesture whose callback was lost
         public static final boolean AUTO_START = false;
         public static final boolean VIBRATION = true;
         public static final boolean NOTIFICATIONS = true;
@@ -170,6 +170,9 @@ public class JsonConverter {
             obj.addProperty("enabled", src.isEnabled());
             obj.addProperty("repeatCount", src.getRepeatCount());
             obj.addProperty("repeatDelay", src.getRepeatDelay());
+            obj.addProperty("retryMode", src.getRetryMode());
+            obj.addProperty("maxRetries", src.getMaxRetries());
+            obj.addProperty("retryDelay", src.getRetryDelay());
             obj.addProperty("executionCount", src.getExecutionCount());
             obj.addProperty("successCount", src.getSuccessCount());
             obj.addProperty("lastExecuted", src.getLastExecuted());
@@ -187,6 +190,11 @@ public class JsonConverter {
             task.setEnabled(obj.get("enabled").getAsBoolean());
             task.setRepeatCount(obj.get("repeatCount").getAsInt());
             task.setRepeatDelay(obj.get("repeatDelay").getAsLong());
+            if (obj.has("retryMode")) {
+                task.setRetryMode(obj.get("retryMode").getAsString());
+                task.setMaxRetries(obj.get("maxRetries").getAsInt());
+                task.setRetryDelay(obj.get("retryDelay").getAsLong());
+            }
             task.setExecutionCount(obj.get("executionCount").getAsInt());
             task.setSuccessCount(obj.get("successCount").getAsInt());
             task.setLastExecuted(obj.get("lastExecuted").getAsLong());
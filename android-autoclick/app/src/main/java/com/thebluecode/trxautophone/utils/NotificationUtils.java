@@ -194,6 +194,54 @@ public class NotificationUtils {
         }
     }
 
+    /**
+     * Offer to resume a run that was cut off, from its last checkpoint. Each
+     * task gets its own notification, tagged with its id.
+     */
+    public static void showResumeNotification(@NonNull AutoClickApplication application,
+                                            @NonNull Task task,
+                                            @NonNull String status) {
+        try {
+            Intent resumeIntent = new Intent(Constants.IntentActions.ACTION_RESUME_CHECKPOINT);
+            resumeIntent.setPackage(application.getPackageName());
+            resumeIntent.putExtra("task_id", task.getId());
+            PendingIntent resumePendingIntent = PendingIntent.getBroadcast(
+                application,
+                (int) task.getId(),
+                resumeIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+            );
+
+            Intent discardIntent = new Intent(Constants.IntentActions.ACTION_DISCARD_CHECKPOINT);
+            discardIntent.setPackage(application.getPackageName());
+            discardIntent.putExtra("task_id", task.getId());
+            PendingIntent discardPendingIntent = PendingIntent.getBroadcast(
+                application,
+                (int) task.getId(),
+                discardIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+            );
+
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(application, "task_channel")
+                .setContentTitle(task.getName())
+                .setContentText(status)
+                .setSmallIcon(R.drawable.ic_task_notification)
+                .setContentIntent(resumePendingIntent)
+                .setAutoCancel(true)
+                .addAction(R.drawable.ic_task_notification, "Resume", resumePendingIntent)
+                .addAction(R.drawable.ic_stop, "Discard", discardPendingIntent)
+                .setPriority(NotificationCompat.PRIORITY_DEFAULT);
+
+            NotificationManagerCompat.from(application)
+                .notify(String.valueOf(task.getId()), Constants.Notification.RESUME_NOTIFICATION_ID,
+                    builder.build());
+
+            Log.d(TAG, "Resume notification shown: " + status);
+        } catch (Exception e) {
+            Log.e(TAG, "Error showing resume notification", e);
+        }
+    }
+
     /**
      * Show error notification
      */
@@ -237,6 +285,18 @@ public class NotificationUtils {
         }
     }
 
+    /**
+     * Cancel the resume offer for a task
+     */
+    public static void cancelResumeNotification(@NonNull Context context, long taskId) {
+        try {
+            NotificationManagerCompat.from(context)
+                .cancel(String.valueOf(taskId), Constants.Notification.RESUME_NOTIFICATION_ID);
+        } catch (Exception e) {
+            Log.e(TAG, "Error cancelling resume notification", e);
+        }
+    }
+
     /**
      * Cancel all notifications
      */
@@ -261,6 +261,47 @@ public class PreferenceManager {
         preferences.edit().putLong(Constants.Preferences.KEY_EXECUTION_LOG_MAX_SIZE, maxSize).apply();
     }
 
+    /**
+     * Get/Set drift-free (absolute deadline) step scheduling
+     */
+    public boolean isDriftFreeSchedulingEnabled() {
+        return preferences.getBoolean(Constants.Preferences.KEY_DRIFT_FREE_SCHEDULING, false);
+    }
+
+    public void setDriftFreeSchedulingEnabled(boolean enabled) {
+        preferences.edit().putBoolean(Constants.Preferences.KEY_DRIFT_FREE_SCHEDULING, enabled).apply();
+    }
+
+    /**
+     * Get/Set fusing of consecutive gesture steps into one dispatch
+     */
+    public boolean isGestureCoalescingEnabled() {
+        return preferences.getBoolean(Constants.Preferences.KEY_GESTURE_COALESCING, false);
+    }
+
+    public void setGestureCoalescingEnabled(boolean enabled) {
+        preferences.edit().putBoolean(Constants.Preferences.KEY_GESTURE_COALESCING, enabled).apply();
+    }
+
+    /**
+     * Get/Set "wait until idle": step delays end early once the screen settles
+     */
+    public boolean isWaitForIdleEnabled() {
+        return preferences.getBoolean(Constants.Preferences.KEY_WAIT_FOR_IDLE, false);
+    }
+
+    public void setWaitForIdleEnabled(boolean enabled) {
+        preferences.edit().putBoolean(Constants.Preferences.KEY_WAIT_FOR_IDLE, enabled).apply();
+    }
+
+    public long getIdleWindow() {
+        return preferences.getLong(Constants.Preferences.KEY_IDLE_WINDOW, Constants.Defaults.IDLE_WINDOW);
+    }
+
+    public void setIdleWindow(long window) {
+        preferences.edit().putLong(Constants.Preferences.KEY_IDLE_WINDOW, Math.max(0, window)).apply();
+    }
+
     /**
      * Secure storage methods
      */
@@ -0,0 +1,192 @@
+package com.thebluecode.trxautophone.utils;
+
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+
+import com.thebluecode.trxautophone.AutoClickApplication;
+import com.thebluecode.trxautophone.MainActivity;
+import com.thebluecode.trxautophone.R;
+import com.thebluecode.trxautophone.models.Task;
+
+/**
+ * Task status and progress notifications for a running task.
+ *
+ * The builders and their PendingIntents are created once per task and reused
+ * for every update. Progress is only posted when the visible percentage or
+ * text changes, and no more often than the update interval; the latest
+ * change inside an interval is posted when it ends. Status changes (started,
+ * paused, completed) are posted immediately.
+ *
+ * Use from the main thread.
+ */
+public class TaskNotificationController {
+    private static final String TAG = "TaskNotifications";
+    private static final String TASK_CHANNEL = "task_channel";
+
+    private final AutoClickApplication application;
+    private final NotificationManagerCompat manager;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flushProgress = this::postPendingProgress;
+    private final long minInterval;
+
+    private long taskId = -1;
+    private NotificationCompat.Builder statusBuilder;
+    private NotificationCompat.Builder progressBuilder;
+
+    private String shownText;
+    private int shownProgress = -1;
+    private String pendingText;
+    private int pendingProgress;
+    private boolean flushScheduled;
+    private long lastProgressPost;
+
+    public TaskNotificationController(@NonNull AutoClickApplication application) {
+        this(application, Constants.Limits.NOTIFICATION_UPDATE_INTERVAL);
+    }
+
+    public TaskNotificationController(@NonNull AutoClickApplication application, long minInterval) {
+        this.application = application;
+        this.manager = NotificationManagerCompat.from(application);
+        this.minInterval = minInterval;
+    }
+
+    /**
+     * Post a task status change right away
+     *
+     * @param progress percentage, or a negative value for no progress bar
+     */
+    public void showStatus(@NonNull Task task, @NonNull String status, int progress) {
+        try {
+            bindTask(task);
+            // Let the last progress of the run land before its final status
+            if (flushScheduled) {
+                handler.removeCallbacks(flushProgress);
+                postPendingProgress();
+            }
+            statusBuilder.setContentText(status);
+            if (progress >= 0) {
+                statusBuilder.setProgress(100, progress, false);
+            } else {
+                statusBuilder.setProgress(0, 0, false);
+            }
+            manager.notify(Constants.Notification.TASK_NOTIFICATION_ID, statusBuilder.build());
+        } catch (Exception e) {
+            Log.e(TAG, "Error showing task notification", e);
+        }
+    }
+
+    /**
+     * Update the progress notification if what it shows would change
+     */
+    public void updateProgress(@NonNull Task task, @NonNull String status, int progress) {
+        try {
+            bindTask(task);
+        } catch (Exception e) {
+            Log.e(TAG, "Error preparing progress notification", e);
+            return;
+        }
+        pendingText = status;
+        pendingProgress = progress;
+        if (progress == shownProgress && status.equals(shownText)) {
+            if (flushScheduled) {
+                handler.removeCallbacks(flushProgress);
+                flushScheduled = false;
+            }
+            return;
+        }
+
+        long now = SystemClock.uptimeMillis();
+        if (now - lastProgressPost >= minInterval) {
+            postPendingProgress();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postAtTime(flushProgress, lastProgressPost + minInterval);
+        }
+    }
+
+    /**
+     * Remove the task's notifications and forget its builders
+     */
+    public void cancel() {
+        handler.removeCallbacks(flushProgress);
+        flushScheduled = false;
+        manager.cancel(Constants.Notification.TASK_NOTIFICATION_ID);
+        manager.cancel(Constants.Notification.PROGRESS_NOTIFICATION_ID);
+        taskId = -1;
+        statusBuilder = null;
+        progressBuilder = null;
+    }
+
+    private void postPendingProgress() {
+        flushScheduled = false;
+        if (progressBuilder == null || pendingText == null) {
+            return;
+        }
+        try {
+            progressBuilder.setContentText(pendingText)
+                .setProgress(100, pendingProgress, false);
+            manager.notify(Constants.Notification.PROGRESS_NOTIFICATION_ID, progressBuilder.build());
+            shownText = pendingText;
+            shownProgress = pendingProgress;
+            lastProgressPost = SystemClock.uptimeMillis();
+        } catch (Exception e) {
+            Log.e(TAG, "Error updating task progress notification", e);
+        }
+    }
+
+    /**
+     * Build the notification templates for a task unless they already exist
+     */
+    private void bindTask(@NonNull Task task) {
+        if (task.getId() == taskId && statusBuilder != null) {
+            statusBuilder.setContentTitle(task.getName());
+            progressBuilder.setContentTitle(task.getName());
+            return;
+        }
+
+        Intent notificationIntent = new Intent(application, MainActivity.class);
+        notificationIntent.putExtra("task_id", task.getId());
+        PendingIntent pendingIntent = PendingIntent.getActivity(
+            application,
+            0,
+            notificationIntent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        Intent stopIntent = new Intent(Constants.IntentActions.ACTION_STOP_TASK);
+        stopIntent.putExtra("task_id", task.getId());
+        PendingIntent stopPendingIntent = PendingIntent.getBroadcast(
+            application,
+            1,
+            stopIntent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        statusBuilder = new NotificationCompat.Builder(application, TASK_CHANNEL)
+            .setContentTitle(task.getName())
+            .setSmallIcon(R.drawable.ic_task_notification)
+            .setContentIntent(pendingIntent)
+            .setAutoCancel(true)
+            .addAction(R.drawable.ic_stop, "Stop", stopPendingIntent)
+            .setPriority(NotificationCompat.PRIORITY_DEFAULT);
+
+        progressBuilder = new NotificationCompat.Builder(application, TASK_CHANNEL)
+            .setContentTitle(task.getName())
+            .setSmallIcon(R.drawable.ic_task_notification)
+            .setOnlyAlertOnce(true)
+            .setPriority(NotificationCompat.PRIORITY_DEFAULT);
+
+        taskId = task.getId();
+        shownText = null;
+        shownProgress = -1;
+        pendingText = null;
+    }
+}